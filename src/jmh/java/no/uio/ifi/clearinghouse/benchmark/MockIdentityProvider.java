@@ -0,0 +1,159 @@
+package no.uio.ifi.clearinghouse.benchmark;
+
+import no.uio.ifi.clearinghouse.CredentialsProvider;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process identity provider serving JWKs, OpenID configuration and "/userinfo" passports
+ * with a configurable number of visas, backed by <code>MockWebServer</code>.
+ * Optionally injects response latency, server errors and key rotation, see {@link Faults}.
+ */
+public class MockIdentityProvider implements Closeable {
+
+    private static final String KEY_ID = "rsa1";
+
+    private final MockWebServer mockWebServer = new MockWebServer();
+    private final CredentialsProvider credentialsProvider;
+    private final int passportSize;
+    private final Faults faults;
+    private final long startedAt = System.nanoTime();
+    private final String jwk;
+    private final Map<Long, List<String>> visaTokens = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> requestCounts = new ConcurrentHashMap<>();
+
+    /**
+     * Faults injected into responses.
+     *
+     * @param latency             Delay before each response.
+     * @param errorRate           Share of responses replaced with "503 Service Unavailable", from 0 to 1.
+     * @param keyRotationInterval Interval of key rotation: key ID of visa tokens changes every interval,
+     *                            and JWKs list the current and the previous key IDs only. Zero disables rotation.
+     */
+    public record Faults(Duration latency, double errorRate, Duration keyRotationInterval) {
+
+        public static final Faults NONE = new Faults(Duration.ZERO, 0, Duration.ZERO);
+
+    }
+
+    public MockIdentityProvider(int passportSize) throws Exception {
+        this(passportSize, Faults.NONE);
+    }
+
+    public MockIdentityProvider(int passportSize, Faults faults) throws Exception {
+        this.passportSize = passportSize;
+        this.faults = faults;
+        mockWebServer.start();
+        credentialsProvider = new CredentialsProvider(mockWebServer.url("/").toString());
+        jwk = Files.readString(Path.of("src/test/resources/jwk.json"));
+        String config = Files.readString(Path.of("src/test/resources/oidcConfig.json"))
+                .replace("https://login.elixir-czech.org/oidc/jwk", mockWebServer.url("/jwk").toString());
+
+        mockWebServer.setDispatcher(new Dispatcher() {
+            @NotNull
+            @Override
+            public MockResponse dispatch(@NotNull RecordedRequest request) {
+                assert request.getPath() != null;
+                requestCounts.computeIfAbsent(request.getPath(), p -> new AtomicLong()).incrementAndGet();
+                MockResponse response;
+                if (faults.errorRate() > 0 && ThreadLocalRandom.current().nextDouble() < faults.errorRate()) {
+                    response = new MockResponse().setResponseCode(503);
+                } else {
+                    response = switch (request.getPath()) {
+                        case "/userinfo" -> new MockResponse().setBody(getPassport());
+                        case "/jwk" -> new MockResponse().setBody(getJWKs()).setHeader("Cache-Control", "max-age=3600");
+                        case "/config" -> new MockResponse().setBody(config).setHeader("Cache-Control", "max-age=3600");
+                        default -> new MockResponse().setResponseCode(404);
+                    };
+                }
+                if (!faults.latency().isZero()) {
+                    response.setHeadersDelay(faults.latency().toNanos(), TimeUnit.NANOSECONDS);
+                }
+                return response;
+            }
+        });
+    }
+
+    public CredentialsProvider getCredentialsProvider() {
+        return credentialsProvider;
+    }
+
+    /**
+     * Returns visa tokens signed with the current key ID.
+     *
+     * @return Visa tokens.
+     */
+    public List<String> getVisaTokens() {
+        return visaTokens.computeIfAbsent(getGeneration(), generation -> Collections.nCopies(passportSize,
+                credentialsProvider.createVisaToken(mockWebServer.url("/").toString(), keyId(generation))));
+    }
+
+    public String getOpenIDConfigurationURL() {
+        return mockWebServer.url("/config").toString();
+    }
+
+    public String getUserInfoURL() {
+        return mockWebServer.url("/userinfo").toString();
+    }
+
+    /**
+     * Returns number of requests served, including failed ones, per path.
+     *
+     * @return Request counts by path.
+     */
+    public Map<String, Long> getRequestCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        requestCounts.forEach((path, count) -> counts.put(path, count.get()));
+        return counts;
+    }
+
+    private String getPassport() {
+        return "{\"sub\":\"test@elixir-europe.org\",\"ga4gh_passport_v1\":[\""
+                + String.join("\",\"", getVisaTokens()) + "\"]}";
+    }
+
+    private String getJWKs() {
+        long generation = getGeneration();
+        if (generation == 0) {
+            return jwk;
+        }
+        String key = jwk.substring(jwk.indexOf('{', jwk.indexOf('[')), jwk.lastIndexOf('}', jwk.lastIndexOf(']')) + 1);
+        String current = key.replace("\"" + KEY_ID + "\"", "\"" + keyId(generation) + "\"");
+        String previous = key.replace("\"" + KEY_ID + "\"", "\"" + keyId(generation - 1) + "\"");
+        return "{\"keys\":[" + current + "," + previous + "]}";
+    }
+
+    private long getGeneration() {
+        if (faults.keyRotationInterval().isZero()) {
+            return 0;
+        }
+        return (System.nanoTime() - startedAt) / faults.keyRotationInterval().toNanos();
+    }
+
+    private static String keyId(long generation) {
+        return generation == 0 ? KEY_ID : KEY_ID + "-" + generation;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mockWebServer.shutdown();
+    }
+
+}
@@ -0,0 +1,72 @@
+package no.uio.ifi.clearinghouse.benchmark;
+
+import no.uio.ifi.clearinghouse.Clearinghouse;
+import no.uio.ifi.clearinghouse.model.Visa;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end passport validation (discovery, access token, "/userinfo" and every visa) for passports of varying sizes,
+ * sequentially and in parallel.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PassportBenchmark {
+
+    @Param({"1", "10", "100", "500"})
+    private int passportSize;
+
+    private MockIdentityProvider identityProvider;
+    private ExecutorService executor;
+    private String accessToken;
+    private String openIDConfigurationURL;
+
+    @Setup
+    public void setup() throws Exception {
+        identityProvider = new MockIdentityProvider(passportSize);
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        accessToken = identityProvider.getCredentialsProvider().getAccessToken();
+        openIDConfigurationURL = identityProvider.getOpenIDConfigurationURL();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        executor.close();
+        identityProvider.close();
+    }
+
+    @Benchmark
+    public Collection<String> getVisaTokensFromOpaqueToken() {
+        return Clearinghouse.INSTANCE.getVisaTokensFromOpaqueToken(accessToken, identityProvider.getUserInfoURL());
+    }
+
+    @Benchmark
+    public Collection<Visa> getVisas() {
+        return Clearinghouse.INSTANCE.getVisas(accessToken, openIDConfigurationURL);
+    }
+
+    @Benchmark
+    public Collection<Visa> getVisasInParallel() {
+        return Clearinghouse.INSTANCE.getVisas(accessToken, openIDConfigurationURL, executor);
+    }
+
+}
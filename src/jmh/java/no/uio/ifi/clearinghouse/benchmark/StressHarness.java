@@ -0,0 +1,223 @@
+package no.uio.ifi.clearinghouse.benchmark;
+
+import no.uio.ifi.clearinghouse.Clearinghouse;
+import no.uio.ifi.clearinghouse.HttpClientConfig;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Concurrency stress harness: many callers on platform or virtual threads validating tokens
+ * against <code>MockIdentityProvider</code> with injected latency, errors and key rotation.
+ * Reports throughput, latency percentiles, failures, outbound requests per endpoint and allocation rate,
+ * so that lock contention and request amplification show up before they reach production.
+ * Options are passed as <code>--name=value</code>:
+ * <ul>
+ *     <li><code>operation</code>: <code>getVisa</code> (visa token by JKU) or <code>getVisas</code> (whole passport by access token), default <code>getVisa</code>;</li>
+ *     <li><code>threads</code>: <code>platform</code>, <code>virtual</code> or <code>both</code>, default <code>both</code>;</li>
+ *     <li><code>callers</code>: number of concurrent callers, default 1000;</li>
+ *     <li><code>requests</code>: number of measured calls, default 100000;</li>
+ *     <li><code>warmup</code>: number of calls made before measuring, default 10000;</li>
+ *     <li><code>passportSize</code>: number of visas in the passport, default 1;</li>
+ *     <li><code>latency</code>: identity provider response delay, e.g. <code>20ms</code>, default none;</li>
+ *     <li><code>errorRate</code>: share of identity provider responses failing with 503, default 0;</li>
+ *     <li><code>keyRotation</code>: interval of identity provider key rotation, e.g. <code>5s</code>, default none;</li>
+ *     <li><code>keyRefetch</code>: minimum JWK set refetch interval of the clearinghouse, default 30s.</li>
+ * </ul>
+ * Logging of the clearinghouse is turned off while running, as injected faults would flood the output.
+ */
+public class StressHarness {
+
+    private static final Logger LOGGER = Logger.getLogger("no.uio.ifi.clearinghouse");
+
+    private record Options(String operation, String threads, int callers, int requests, int warmup, int passportSize,
+                           Duration latency, double errorRate, Duration keyRotation, Duration keyRefetch) {
+
+        static Options parse(String[] args) {
+            Map<String, String> values = new HashMap<>();
+            for (String arg : args) {
+                if (!arg.startsWith("--") || !arg.contains("=")) {
+                    throw new IllegalArgumentException("Expected --name=value, got: " + arg);
+                }
+                values.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+            }
+            var options = new Options(
+                    values.getOrDefault("operation", "getVisa"),
+                    values.getOrDefault("threads", "both"),
+                    Integer.parseInt(values.getOrDefault("callers", "1000")),
+                    Integer.parseInt(values.getOrDefault("requests", "100000")),
+                    Integer.parseInt(values.getOrDefault("warmup", "10000")),
+                    Integer.parseInt(values.getOrDefault("passportSize", "1")),
+                    parseDuration(values.getOrDefault("latency", "0ms")),
+                    Double.parseDouble(values.getOrDefault("errorRate", "0")),
+                    parseDuration(values.getOrDefault("keyRotation", "0ms")),
+                    parseDuration(values.getOrDefault("keyRefetch", "30s")));
+            if (!List.of("getVisa", "getVisas").contains(options.operation())) {
+                throw new IllegalArgumentException("Unknown operation: " + options.operation());
+            }
+            if (!List.of("platform", "virtual", "both").contains(options.threads())) {
+                throw new IllegalArgumentException("Unknown threads: " + options.threads());
+            }
+            return options;
+        }
+
+        private static Duration parseDuration(String value) {
+            if (value.endsWith("ms")) {
+                return Duration.ofMillis(Long.parseLong(value.substring(0, value.length() - 2)));
+            }
+            if (value.endsWith("s")) {
+                return Duration.ofSeconds(Long.parseLong(value.substring(0, value.length() - 1)));
+            }
+            return Duration.parse(value);
+        }
+
+    }
+
+    /**
+     * Outcome of one measured phase.
+     */
+    private record Report(int requests, long failures, long elapsedNanos, long[] latencies,
+                          Map<String, Long> outboundRequests, long allocatedBytes) {
+
+        double throughput() {
+            return requests * 1e9 / elapsedNanos;
+        }
+
+        double percentileMillis(double quantile) {
+            int index = (int) Math.ceil(quantile * latencies.length) - 1;
+            return latencies[Math.max(0, Math.min(latencies.length - 1, index))] / 1e6;
+        }
+
+    }
+
+    public static void main(String[] args) throws Exception {
+        var options = Options.parse(args);
+        System.out.println(options);
+        LOGGER.setLevel(Level.OFF);
+        for (String threads : options.threads().equals("both") ? List.of("platform", "virtual") : List.of(options.threads())) {
+            var factory = threads.equals("virtual")
+                    ? Thread.ofVirtual().name("stress-", 0).factory()
+                    : Thread.ofPlatform().name("stress-", 0).factory();
+            print(threads, options, run(options, factory));
+        }
+    }
+
+    private static Report run(Options options, ThreadFactory factory) throws Exception {
+        var faults = new MockIdentityProvider.Faults(options.latency(), options.errorRate(), options.keyRotation());
+        try (var identityProvider = new MockIdentityProvider(options.passportSize(), faults)) {
+            var clearinghouse = Clearinghouse.builder()
+                    .httpClientConfig(HttpClientConfig.builder()
+                            .maxRequests(options.callers())
+                            .maxRequestsPerHost(options.callers())
+                            .build())
+                    .minimumKeyRefetchInterval(options.keyRefetch())
+                    .build();
+            var accessToken = identityProvider.getCredentialsProvider().getAccessToken();
+            var openIDConfigurationURL = identityProvider.getOpenIDConfigurationURL();
+            Call call = switch (options.operation()) {
+                case "getVisas" -> () -> clearinghouse.getVisas(accessToken, openIDConfigurationURL).size() == options.passportSize();
+                default -> () -> clearinghouse.getVisa(identityProvider.getVisaTokens().get(0)).isPresent();
+            };
+            if (options.warmup() > 0) {
+                run(call, factory, options.callers(), options.warmup());
+            }
+            var requestsBefore = identityProvider.getRequestCounts();
+            long allocatedBefore = allocatedBytes();
+            var report = run(call, factory, options.callers(), options.requests());
+            long allocatedAfter = allocatedBytes();
+            Map<String, Long> outboundRequests = new TreeMap<>();
+            identityProvider.getRequestCounts().forEach((path, count) ->
+                    outboundRequests.put(path, count - requestsBefore.getOrDefault(path, 0L)));
+            return new Report(report.requests(), report.failures(), report.elapsedNanos(), report.latencies(),
+                    outboundRequests, allocatedBefore < 0 ? -1 : allocatedAfter - allocatedBefore);
+        }
+    }
+
+    private static Report run(Call call, ThreadFactory factory, int callers, int requests) throws InterruptedException {
+        long[] latencies = new long[requests];
+        var next = new AtomicInteger();
+        var failures = new AtomicLong();
+        var start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>(callers);
+        for (int i = 0; i < callers; i++) {
+            var thread = factory.newThread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                int request;
+                while ((request = next.getAndIncrement()) < requests) {
+                    long callStart = System.nanoTime();
+                    boolean success;
+                    try {
+                        success = call.invoke();
+                    } catch (RuntimeException e) {
+                        success = false;
+                    }
+                    latencies[request] = System.nanoTime() - callStart;
+                    if (!success) {
+                        failures.incrementAndGet();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        long startedAt = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - startedAt;
+        Arrays.sort(latencies);
+        return new Report(requests, failures.get(), elapsed, latencies, Map.of(), 0);
+    }
+
+    /**
+     * Returns bytes allocated by all threads so far; allocations of virtual threads are attributed to their carriers.
+     *
+     * @return Allocated bytes or <code>-1</code> if not supported by the JVM.
+     */
+    private static long allocatedBytes() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threadMXBean
+                && threadMXBean.isThreadAllocatedMemorySupported() && threadMXBean.isThreadAllocatedMemoryEnabled()) {
+            return threadMXBean.getTotalThreadAllocatedBytes();
+        }
+        return -1;
+    }
+
+    private static void print(String threads, Options options, Report report) {
+        System.out.printf("%s threads, %s: %d requests by %d callers in %d ms, %.0f requests/s, %d failed%n",
+                threads, options.operation(), report.requests(), options.callers(), report.elapsedNanos() / 1_000_000,
+                report.throughput(), report.failures());
+        System.out.printf("  latency, ms: p50 %.3f, p99 %.3f, p999 %.3f, max %.3f%n", report.percentileMillis(0.5),
+                report.percentileMillis(0.99), report.percentileMillis(0.999), report.percentileMillis(1));
+        System.out.printf("  outbound requests: %s%n", report.outboundRequests());
+        if (report.allocatedBytes() >= 0) {
+            System.out.printf("  allocation: %.1f MB/s, %.1f KB/request%n",
+                    report.allocatedBytes() * 1e3 / report.elapsedNanos(), report.allocatedBytes() / 1024.0 / report.requests());
+        }
+    }
+
+    @FunctionalInterface
+    private interface Call {
+
+        boolean invoke();
+
+    }
+
+}
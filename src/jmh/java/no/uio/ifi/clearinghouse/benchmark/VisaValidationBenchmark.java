@@ -0,0 +1,68 @@
+package no.uio.ifi.clearinghouse.benchmark;
+
+import no.uio.ifi.clearinghouse.Clearinghouse;
+import no.uio.ifi.clearinghouse.model.Visa;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.interfaces.RSAPublicKey;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-token validation hot paths: signature verification with a known key,
+ * JKU-based verification with a warm <code>JWKProvider</code> and access token verification with "/userinfo" call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VisaValidationBenchmark {
+
+    private MockIdentityProvider identityProvider;
+    private RSAPublicKey publicKey;
+    private String accessToken;
+    private String visaToken;
+
+    @Setup
+    public void setup() throws Exception {
+        identityProvider = new MockIdentityProvider(1);
+        publicKey = (RSAPublicKey) identityProvider.getCredentialsProvider().getPublicKey();
+        accessToken = identityProvider.getCredentialsProvider().getAccessToken();
+        visaToken = identityProvider.getCredentialsProvider().getVisaToken();
+        Clearinghouse.INSTANCE.getVisa(visaToken).orElseThrow(); // warm up JWKProvider
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        identityProvider.close();
+    }
+
+    @Benchmark
+    public Optional<Visa> getVisaWithPublicKey() {
+        return Clearinghouse.INSTANCE.getVisaWithPublicKey(visaToken, publicKey);
+    }
+
+    @Benchmark
+    public Optional<Visa> getVisa() {
+        return Clearinghouse.INSTANCE.getVisa(visaToken);
+    }
+
+    @Benchmark
+    public Collection<String> getVisaTokensWithPublicKey() {
+        return Clearinghouse.INSTANCE.getVisaTokensWithPublicKey(accessToken, publicKey);
+    }
+
+}
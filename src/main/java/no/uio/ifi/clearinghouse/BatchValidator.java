@@ -0,0 +1,274 @@
+package no.uio.ifi.clearinghouse;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import lombok.extern.slf4j.Slf4j;
+import no.uio.ifi.clearinghouse.instrumentation.Failure;
+import no.uio.ifi.clearinghouse.model.Visa;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Offline validator of large numbers of stored visa tokens, e.g. for audits and periodic re-authorization.
+ * Input is read line by line: each line is either a visa JWT token, a JSON string containing one,
+ * or a JSON object with "ga4gh_passport_v1" claim (e.g. saved "/userinfo" response).
+ * Tokens are processed in chunks of bounded size: within a chunk keys are resolved once per distinct JKU and key ID,
+ * then signatures are verified in parallel. Results are emitted in input order, chunk by chunk,
+ * so memory use doesn't depend on the input size. Progress and throughput are logged after each chunk.
+ */
+@Slf4j
+public class BatchValidator {
+
+    /**
+     * Default number of tokens processed at once.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 10_000;
+
+    private final Clearinghouse clearinghouse;
+
+    private final Executor executor;
+
+    private final int chunkSize;
+
+    private final Gson gson = new Gson();
+
+    /**
+     * Creates the validator.
+     *
+     * @param clearinghouse <code>Clearinghouse</code> instance to validate tokens with.
+     * @param executor      Executor to verify signatures on, e.g. fixed pool with one thread per core.
+     * @param chunkSize     Maximum number of tokens held in memory at once.
+     */
+    public BatchValidator(Clearinghouse clearinghouse, Executor executor, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive");
+        }
+        this.clearinghouse = clearinghouse;
+        this.executor = executor;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Outcome of validation of one visa token.
+     *
+     * @param line    Line number of the token in the input, starting from 1.
+     * @param index   Index of the token within the line: non-zero for passports only.
+     * @param visa    <code>Visa</code> POJO, if token validated successfully.
+     * @param failure Reason of the rejection, if token didn't validate.
+     * @param message Details of the rejection, if token didn't validate.
+     */
+    public record Result(long line, int index, Visa visa, Failure failure, String message) {
+
+        public boolean isValid() {
+            return visa != null;
+        }
+
+    }
+
+    /**
+     * Totals of the validation run.
+     *
+     * @param total   Number of tokens processed.
+     * @param valid   Number of tokens validated successfully.
+     * @param elapsed Duration of the run.
+     */
+    public record Summary(long total, long valid, Duration elapsed) {
+
+        public long invalid() {
+            return total - valid;
+        }
+
+        /**
+         * Returns the number of tokens processed per second.
+         *
+         * @return Tokens per second.
+         */
+        public double throughput() {
+            return total * 1000.0 / Math.max(elapsed.toMillis(), 1);
+        }
+
+    }
+
+    /**
+     * Validates visa tokens read from the input file and writes results to the output file as JSON lines.
+     *
+     * @param input  Input file: visa tokens or passports, one per line.
+     * @param output Output file: one JSON object per visa token.
+     * @return Totals of the run.
+     * @throws IOException If files can't be read or written.
+     */
+    public Summary validate(Path input, Path output) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8);
+             BufferedWriter writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+            return validate(reader, result -> {
+                try {
+                    gson.toJson(result, writer);
+                    writer.newLine();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Validates visa tokens read from the input, passing results to the consumer in input order.
+     *
+     * @param input  Visa tokens or passports, one per line.
+     * @param output Consumer of the results, called on the calling thread.
+     * @return Totals of the run.
+     * @throws IOException If input can't be read.
+     */
+    public Summary validate(Reader input, Consumer<Result> output) throws IOException {
+        long start = System.nanoTime();
+        long total = 0;
+        long valid = 0;
+        var reader = input instanceof BufferedReader bufferedReader ? bufferedReader : new BufferedReader(input);
+        List<Token> chunk = new ArrayList<>(chunkSize);
+        long lineNumber = 0;
+        String line;
+        do {
+            line = reader.readLine();
+            if (line != null) {
+                readTokens(++lineNumber, line, chunk);
+            }
+            if (chunk.size() >= chunkSize || line == null && !chunk.isEmpty()) {
+                for (Result result : validate(chunk)) {
+                    output.accept(result);
+                    if (result.isValid()) {
+                        valid++;
+                    }
+                }
+                total += chunk.size();
+                chunk.clear();
+                var progress = new Summary(total, valid, Duration.ofNanos(System.nanoTime() - start));
+                log.info("Validated {} visa tokens ({} valid, {} invalid), {} tokens/s",
+                        progress.total(), progress.valid(), progress.invalid(), Math.round(progress.throughput()));
+            }
+        } while (line != null);
+        return new Summary(total, valid, Duration.ofNanos(System.nanoTime() - start));
+    }
+
+    private List<Result> validate(List<Token> tokens) {
+        Map<Pair<String, String>, Object> keys = new HashMap<>();
+        List<CompletableFuture<Result>> results = new ArrayList<>(tokens.size());
+        for (Token token : tokens) {
+            if (token.value() == null) {
+                results.add(CompletableFuture.completedFuture(
+                        new Result(token.line(), token.index(), null, Failure.MALFORMED, token.error())));
+                continue;
+            }
+            TokenPreview preview;
+            try {
+                preview = clearinghouse.previewVisaToken(token.value());
+            } catch (RuntimeException e) {
+                results.add(CompletableFuture.completedFuture(token.failure(e)));
+                continue;
+            }
+            var key = keys.computeIfAbsent(new ImmutablePair<>(preview.getJku(), preview.getKid()), k -> {
+                try {
+                    return clearinghouse.getVisaPublicKey(preview);
+                } catch (RuntimeException e) {
+                    return e;
+                }
+            });
+            if (key instanceof RuntimeException e) {
+                results.add(CompletableFuture.completedFuture(token.failure(e)));
+                continue;
+            }
+            results.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return token.success(clearinghouse.readVisa(token.value(), preview.getIss(), (RSAPublicKey) key));
+                } catch (RuntimeException e) {
+                    return token.failure(e);
+                }
+            }, executor));
+        }
+        return results.stream().map(CompletableFuture::join).toList();
+    }
+
+    private void readTokens(long lineNumber, String line, List<Token> tokens) {
+        var trimmed = line.trim();
+        if (trimmed.isEmpty()) {
+            return;
+        }
+        try {
+            if (trimmed.startsWith("{")) {
+                int index = 0;
+                for (String visaToken : PassportReader.readVisaTokens(new StringReader(trimmed))) {
+                    tokens.add(new Token(lineNumber, index++, visaToken, null));
+                }
+            } else if (trimmed.startsWith("\"")) {
+                tokens.add(new Token(lineNumber, 0, gson.fromJson(trimmed, String.class), null));
+            } else {
+                tokens.add(new Token(lineNumber, 0, trimmed, null));
+            }
+        } catch (IOException | JsonParseException e) {
+            tokens.add(new Token(lineNumber, 0, null, "Malformed line: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Visa token read from the input, or error if the line couldn't be read.
+     */
+    private record Token(long line, int index, String value, String error) {
+
+        Result success(Visa visa) {
+            return new Result(line, index, visa, null, null);
+        }
+
+        Result failure(Throwable e) {
+            return new Result(line, index, null, Clearinghouse.failureOf(e), e.getMessage());
+        }
+
+    }
+
+    /**
+     * Command line entry point: <code>BatchValidator input output [trusted issuer...]</code>.
+     * Validates visa tokens from the input file with one verification thread per core
+     * and writes results to the output file as JSON lines.
+     *
+     * @param args Input file, output file and optional trusted issuers.
+     * @throws IOException If files can't be read or written.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: BatchValidator <input file> <output file> [trusted issuer...]");
+            System.exit(1);
+        }
+        var builder = Clearinghouse.builder();
+        if (args.length > 2) {
+            builder.trustedIssuers(List.of(args).subList(2, args.length));
+        }
+        try (ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors())) {
+            var validator = new BatchValidator(builder.build(), executor, DEFAULT_CHUNK_SIZE);
+            var summary = validator.validate(Path.of(args[0]), Path.of(args[1]));
+            log.info("Done: {} visa tokens ({} valid, {} invalid) in {} ms, {} tokens/s", summary.total(),
+                    summary.valid(), summary.invalid(), summary.elapsed().toMillis(), Math.round(summary.throughput()));
+        }
+    }
+
+}
@@ -0,0 +1,81 @@
+package no.uio.ifi.clearinghouse;
+
+import okhttp3.Interceptor;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * OkHttp interceptor limiting the number of concurrent requests made by the client.
+ * Requests over the limit wait for a free slot up to the maximum wait time and then fail with <code>IOException</code>,
+ * so that callers fail fast instead of queueing behind a slow server.
+ * Unlike OkHttp <code>Dispatcher</code> limits, it applies to synchronous calls too.
+ */
+class Bulkhead implements Interceptor {
+
+    private final Semaphore permits;
+
+    private final int maxConcurrentRequests;
+
+    private final long maxWaitNanos;
+
+    private final LongAdder rejections = new LongAdder();
+
+    Bulkhead(int maxConcurrentRequests, Duration maxWait) {
+        if (maxConcurrentRequests <= 0) {
+            throw new IllegalArgumentException("Maximum number of concurrent requests must be positive");
+        }
+        this.permits = new Semaphore(maxConcurrentRequests);
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        this.maxWaitNanos = maxWait.toNanos();
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        if (!acquire()) {
+            rejections.increment();
+            throw new IOException("Too many concurrent requests to " + chain.request().url().host());
+        }
+        try {
+            return chain.proceed(chain.request());
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Returns number of requests in progress.
+     *
+     * @return Active requests.
+     */
+    int getActiveRequests() {
+        return maxConcurrentRequests - permits.availablePermits();
+    }
+
+    /**
+     * Returns number of requests rejected due to the concurrency limit.
+     *
+     * @return Rejected requests.
+     */
+    long getRejections() {
+        return rejections.sum();
+    }
+
+    private boolean acquire() throws InterruptedIOException {
+        if (maxWaitNanos <= 0) {
+            return permits.tryAcquire();
+        }
+        try {
+            return permits.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a request slot");
+        }
+    }
+
+}
@@ -0,0 +1,76 @@
+package no.uio.ifi.clearinghouse;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+/**
+ * On-disk snapshot of OpenID configuration and JWK set caches, letting a new process start with warm caches.
+ * Only raw documents and their validators are stored: nothing in the snapshot is trusted beyond what
+ * the original responses were, and restored documents are revalidated with the servers on first use.
+ *
+ * @param version   Snapshot format version.
+ * @param discovery Cached OpenID configurations.
+ * @param jwks      Cached JWK sets.
+ */
+record CacheSnapshot(int version, List<HttpDocumentCache.Entry> discovery, List<HttpDocumentCache.Entry> jwks) {
+
+    static final int VERSION = 1;
+
+    private static final Gson GSON = new Gson();
+
+    CacheSnapshot {
+        discovery = discovery == null ? List.of() : discovery;
+        jwks = jwks == null ? List.of() : jwks;
+    }
+
+    CacheSnapshot(List<HttpDocumentCache.Entry> discovery, List<HttpDocumentCache.Entry> jwks) {
+        this(VERSION, discovery, jwks);
+    }
+
+    /**
+     * Reads snapshot from the file.
+     *
+     * @param path Snapshot file.
+     * @return <code>CacheSnapshot</code> instance.
+     * @throws IOException If the file can't be read or is not a snapshot of supported version.
+     */
+    static CacheSnapshot read(Path path) throws IOException {
+        CacheSnapshot snapshot;
+        try (var reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            snapshot = GSON.fromJson(reader, CacheSnapshot.class);
+        } catch (JsonParseException e) {
+            throw new IOException("Malformed cache snapshot " + path, e);
+        }
+        if (snapshot == null || snapshot.version() != VERSION) {
+            throw new IOException("Unsupported cache snapshot " + path);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Writes snapshot to the file atomically: readers never observe partially written snapshot.
+     *
+     * @param path Snapshot file.
+     * @throws IOException If the file can't be written.
+     */
+    void write(Path path) throws IOException {
+        var directory = path.toAbsolutePath().getParent();
+        var temporary = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+        try {
+            try (var writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+                GSON.toJson(this, writer);
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+}
@@ -0,0 +1,152 @@
+package no.uio.ifi.clearinghouse;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * OkHttp interceptor breaking circuits of failing endpoints (URLs without query).
+ * After the threshold of consecutive failures (I/O errors or 5xx responses) the circuit of the endpoint opens,
+ * and its requests fail immediately with <code>CircuitOpenException</code> instead of waiting out timeouts.
+ * Once the open duration elapses, the circuit is half-open: the next request is let through as a trial,
+ * closing the circuit if it gets a successful (2xx) response or keeping it open for another period otherwise.
+ * Other callers keep failing fast while the trial request is in flight.
+ * Circuits are kept for a bounded number of recently used endpoints.
+ */
+@Slf4j
+class CircuitBreaker implements Interceptor {
+
+    private final int failureThreshold;
+
+    private final long openNanos;
+
+    static final int MAXIMUM_ENDPOINTS = 1_000;
+
+    static final Duration ENDPOINT_EXPIRATION = Duration.ofHours(1);
+
+    private final Cache<String, Circuit> circuits = Caffeine.newBuilder()
+            .maximumSize(MAXIMUM_ENDPOINTS)
+            .expireAfterAccess(ENDPOINT_EXPIRATION)
+            .build();
+
+    /**
+     * Creates the circuit breaker.
+     *
+     * @param failureThreshold Number of consecutive failures opening the circuit.
+     * @param openDuration     Time to keep the circuit open for before letting a trial request through.
+     */
+    CircuitBreaker(int failureThreshold, Duration openDuration) {
+        if (failureThreshold <= 0) {
+            throw new IllegalArgumentException("Failure threshold must be positive");
+        }
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openDuration.toNanos();
+    }
+
+    /**
+     * Exception thrown for requests to the endpoint with open circuit.
+     */
+    static class CircuitOpenException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        CircuitOpenException(String message) {
+            super(message);
+        }
+
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        var request = chain.request();
+        var endpoint = endpoint(request.url());
+        var circuit = circuits.get(endpoint, k -> new Circuit());
+        if (circuit.open) {
+            if (System.nanoTime() - circuit.openedAt < openNanos || !circuit.probing.compareAndSet(false, true)) {
+                throw new CircuitOpenException("Circuit open for " + endpoint);
+            }
+            return trial(chain, endpoint, circuit);
+        }
+        Response response;
+        try {
+            response = chain.proceed(request);
+        } catch (IOException e) {
+            if (!chain.call().isCanceled()) {
+                circuit.failure(endpoint);
+            }
+            throw e;
+        }
+        if (response.code() >= 500) {
+            circuit.failure(endpoint);
+        } else {
+            circuit.success();
+        }
+        return response;
+    }
+
+    /**
+     * Sends the request of the half-open circuit, closing the circuit only on a successful response.
+     * A cancelled trial leaves the circuit half-open for the next request.
+     */
+    private Response trial(Chain chain, String endpoint, Circuit circuit) throws IOException {
+        try {
+            var response = chain.proceed(chain.request());
+            if (response.isSuccessful()) {
+                log.info("Circuit closed for {}", endpoint);
+                circuit.success();
+            } else {
+                circuit.reopen();
+            }
+            return response;
+        } catch (IOException | RuntimeException e) {
+            if (!chain.call().isCanceled()) {
+                circuit.reopen();
+            }
+            throw e;
+        } finally {
+            circuit.probing.set(false);
+        }
+    }
+
+    private static String endpoint(HttpUrl url) {
+        return url.newBuilder().query(null).fragment(null).build().toString();
+    }
+
+    private final class Circuit {
+
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+        private final AtomicBoolean probing = new AtomicBoolean();
+
+        private volatile boolean open;
+
+        private volatile long openedAt;
+
+        private void success() {
+            consecutiveFailures.set(0);
+            open = false;
+        }
+
+        private void failure(String endpoint) {
+            if (consecutiveFailures.incrementAndGet() >= failureThreshold && !open) {
+                log.warn("Circuit opened for {} after {} consecutive failures", endpoint, failureThreshold);
+                reopen();
+            }
+        }
+
+        private void reopen() {
+            openedAt = System.nanoTime();
+            open = true;
+        }
+
+    }
+
+}
@@ -0,0 +1,59 @@
+package no.uio.ifi.clearinghouse;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.ToNumberPolicy;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import io.jsonwebtoken.io.AbstractDeserializer;
+import io.jsonwebtoken.io.DeserializationException;
+import no.uio.ifi.clearinghouse.model.Visa;
+
+import java.io.Reader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * JSON deserializer of JWT headers and payloads for jjwt, based on Gson streaming API.
+ * "ga4gh_visa_v1" claim is decoded directly into <code>Visa</code> by its hand-written adapter,
+ * in the same pass as the rest of the payload. Required fields are checked only once the signature is verified.
+ * Other values are decoded into maps, lists, strings, booleans and numbers (<code>Long</code> or <code>Double</code>).
+ */
+final class ClaimsDeserializer extends AbstractDeserializer<Map<String, ?>> {
+
+    static final ClaimsDeserializer INSTANCE = new ClaimsDeserializer();
+
+    private static final String GA_4_GH_VISA_V_1 = "ga4gh_visa_v1";
+
+    private final TypeAdapter<Object> values;
+
+    private final TypeAdapter<Visa> visas;
+
+    private ClaimsDeserializer() {
+        Gson gson = new GsonBuilder().setObjectToNumberStrategy(ToNumberPolicy.LONG_OR_DOUBLE).create();
+        this.values = gson.getAdapter(Object.class);
+        this.visas = gson.getAdapter(Visa.class);
+    }
+
+    @Override
+    protected Map<String, ?> doDeserialize(Reader reader) throws Exception {
+        var in = new JsonReader(reader);
+        Map<String, Object> claims = new LinkedHashMap<>();
+        in.beginObject();
+        while (in.hasNext()) {
+            var name = in.nextName();
+            if (GA_4_GH_VISA_V_1.equals(name) && in.peek() == JsonToken.BEGIN_OBJECT) {
+                claims.put(name, visas.read(in));
+            } else {
+                claims.put(name, values.read(in));
+            }
+        }
+        in.endObject();
+        if (in.peek() != JsonToken.END_DOCUMENT) {
+            throw new DeserializationException("Unexpected content after JSON object");
+        }
+        return claims;
+    }
+
+}
@@ -1,53 +1,137 @@
 package no.uio.ifi.clearinghouse;
 
+import com.auth0.jwk.Jwk;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonSyntaxException;
+import io.jsonwebtoken.ClaimJwtException;
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.ExpiredJwtException;
 import io.jsonwebtoken.Jws;
-import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.MalformedJwtException;
+import io.jsonwebtoken.PrematureJwtException;
+import io.jsonwebtoken.UnsupportedJwtException;
 import io.jsonwebtoken.security.SignatureException;
 import lombok.extern.slf4j.Slf4j;
+import no.uio.ifi.clearinghouse.instrumentation.Failure;
+import no.uio.ifi.clearinghouse.instrumentation.Instrumentation;
+import no.uio.ifi.clearinghouse.instrumentation.Stage;
 import no.uio.ifi.clearinghouse.model.Visa;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
+import okhttp3.Response;
 import okhttp3.ResponseBody;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.security.GeneralSecurityException;
-import java.security.KeyFactory;
-import java.security.PublicKey;
 import java.security.interfaces.RSAPublicKey;
-import java.security.spec.X509EncodedKeySpec;
-import java.util.Base64;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
- * Singleton class to be used for getting visa JWT tokens provided access JWT token
+ * Class to be used for getting visa JWT tokens provided access JWT token
  * and for converting visa JWT tokens to <code>Visa</code> POJOs.
+ * <code>INSTANCE</code> uses default configuration; custom instances are created with {@link #builder()}.
+ * Instances are thread-safe and meant to be long-lived: each holds its own caches.
  */
 @Slf4j
-public enum Clearinghouse {
+public class Clearinghouse {
 
-    INSTANCE;
+    /**
+     * Default instance: default HTTP client, no visa cache, any issuer accepted, no instrumentation.
+     */
+    public static final Clearinghouse INSTANCE = builder().build();
 
-    private static final String KEY_WRAPPING = "-----(.*?)-----";
     private static final String JKU = "jku";
-    private static final String RSA = "RSA";
     private static final String JWKS_URI = "jwks_uri";
-    private static final String GA_4_GH_PASSPORT_V_1 = "ga4gh_passport_v1";
     private static final String GA_4_GH_VISA_V_1 = "ga4gh_visa_v1";
-    private static final String USERINFO = "userinfo";
+    static final String USERINFO = "userinfo";
     private static final String AUTHORIZATION = "Authorization";
     private static final String BEARER = "Bearer ";
     private static final String KID = "kid";
-    private final OkHttpClient client = new OkHttpClient();
+    static final String OPENID_CONFIGURATION = ".well-known/openid-configuration";
+
+    private final OkHttpClient client;
 
     private final Gson gson = new Gson();
 
+    private final KeyRegistry keys = new KeyRegistry();
+
+    private final JWKProvider jwkProvider;
+
+    private final HttpDocumentCache<String> jwksURLs;
+
+    private final SingleFlight<String, Collection<String>> userInfoFetches = new SingleFlight<>();
+
+    private final VisaCache visaCache;
+
+    private final PassportCache passportCache;
+
+    private final Set<String> trustedIssuers;
+
+    private final IssuerRegistry issuerRegistry;
+
+    private final Instrumentation instrumentation;
+
+    private Clearinghouse(Builder builder) {
+        this.issuerRegistry = new IssuerRegistry(builder.issuers.values(), builder.minimumKeyRefetchInterval, builder.instrumentation,
+                this::parseJWKsURL);
+        this.instrumentation = issuerRegistry.isEmpty() ? builder.instrumentation : issuerRegistry.accounting(builder.instrumentation);
+        if (builder.httpClientConfig == null && builder.instrumentation == Instrumentation.NOOP
+                && builder.minimumKeyRefetchInterval.equals(JWKProvider.DEFAULT_MINIMUM_REFETCH_INTERVAL)) {
+            this.client = HttpClientConfig.defaultClient();
+            this.jwkProvider = JWKProvider.INSTANCE;
+        } else {
+            this.client = builder.httpClientConfig == null
+                    ? HttpClientConfig.defaultClient()
+                    : builder.httpClientConfig.createClient();
+            this.jwkProvider = new JWKProvider(client, builder.minimumKeyRefetchInterval, instrumentation);
+        }
+        this.jwksURLs = new HttpDocumentCache<>(client, Stage.DISCOVERY_FETCH, instrumentation, this::parseJWKsURL);
+        this.visaCache = builder.visaCache;
+        this.passportCache = builder.passportCache;
+        if (issuerRegistry.isEmpty()) {
+            this.trustedIssuers = builder.trustedIssuers;
+        } else {
+            Set<String> issuers = new HashSet<>(issuerRegistry.getIssuers());
+            if (builder.trustedIssuers != null) {
+                issuers.addAll(builder.trustedIssuers);
+            }
+            this.trustedIssuers = Set.copyOf(issuers);
+        }
+    }
+
+    /**
+     * Creates builder of a custom <code>Clearinghouse</code> instance.
+     *
+     * @return <code>Builder</code> instance.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
 
     /**
      * Validates access JWT token and returns a list of Visas obtained from "/userinfo" endpoint.
@@ -67,6 +151,35 @@ public enum Clearinghouse {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Validates access JWT token and returns a list of Visas obtained from "/userinfo" endpoint.
+     * Access token is validated based on JWKs URL of the OpenID configuration.
+     * Visa tokens are validated based on JKUs, in parallel, using the executor provided.
+     *
+     * @param accessToken            Access JWT token.
+     * @param openIDConfigurationURL ".well-known/openid-configuration" full URL.
+     * @param executor               Executor to verify visa tokens on.
+     * @return List of GA4GH Visas, in the order of visa tokens in the passport.
+     */
+    public Collection<Visa> getVisas(String accessToken, String openIDConfigurationURL, Executor executor) {
+        return getVisas(getVisaTokens(accessToken, openIDConfigurationURL), executor);
+    }
+
+    /**
+     * Validates access JWT token and returns a list of Visas obtained from "/userinfo" endpoint,
+     * verifying only visa tokens accepted by the filter. The filter is applied to unverified contents of the tokens,
+     * so tokens it rejects cost neither key lookups nor signature verification;
+     * all the Visas returned are verified nevertheless.
+     *
+     * @param accessToken            Access JWT token.
+     * @param openIDConfigurationURL ".well-known/openid-configuration" full URL.
+     * @param filter                 Filter of visa tokens to verify, e.g. <code>p -> p.isVisaType(VisaType.ControlledAccessGrants)</code>.
+     * @return List of GA4GH Visas accepted by the filter.
+     */
+    public Collection<Visa> getVisasMatching(String accessToken, String openIDConfigurationURL, Predicate<TokenPreview> filter) {
+        return getVisasMatching(getVisaTokens(accessToken, openIDConfigurationURL), filter);
+    }
+
     /**
      * Validates access JWT token and returns a list of Visas obtained from "/userinfo" endpoint.
      * Access token is validated based on PEM RSA public key provided.
@@ -85,6 +198,20 @@ public enum Clearinghouse {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Validates access JWT token and returns a list of Visas obtained from "/userinfo" endpoint.
+     * Access token is validated based on PEM RSA public key provided.
+     * Visa tokens are validated based on JKUs, in parallel, using the executor provided.
+     *
+     * @param accessToken  Access JWT token.
+     * @param pemPublicKey PEM RSA public key.
+     * @param executor     Executor to verify visa tokens on.
+     * @return List of GA4GH Visas, in the order of visa tokens in the passport.
+     */
+    public Collection<Visa> getVisasWithPEMPublicKey(String accessToken, String pemPublicKey, Executor executor) {
+        return getVisas(getVisaTokensWithPEMPublicKey(accessToken, pemPublicKey), executor);
+    }
+
     /**
      * Validates access JWT token and returns a list of Visas obtained from "/userinfo" endpoint.
      * Access token is validated based on RSA public key provided.
@@ -103,23 +230,234 @@ public enum Clearinghouse {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Validates access JWT token and returns a list of Visas obtained from "/userinfo" endpoint.
+     * Access token is validated based on RSA public key provided.
+     * Visa tokens are validated based on JKUs, in parallel, using the executor provided.
+     *
+     * @param accessToken Access JWT token.
+     * @param publicKey   RSA public key.
+     * @param executor    Executor to verify visa tokens on.
+     * @return List of GA4GH Visas, in the order of visa tokens in the passport.
+     */
+    public Collection<Visa> getVisasWithPublicKey(String accessToken, RSAPublicKey publicKey, Executor executor) {
+        return getVisas(getVisaTokensWithPublicKey(accessToken, publicKey), executor);
+    }
+
+    /**
+     * Validates visa JWT tokens and converts them to <code>Visa</code> POJOs.
+     * Tokens are validated based on JKUs. Keys are resolved up front, once per distinct JKU and key ID,
+     * then signatures are verified in parallel using the executor provided.
+     *
+     * @param visaTokens Visa JWT tokens.
+     * @param executor   Executor to verify visa tokens on, e.g. virtual thread per task executor or a bounded pool.
+     * @return List of GA4GH Visas that validated successfully, in the order of visa tokens provided.
+     */
+    public Collection<Visa> getVisas(Collection<String> visaTokens, Executor executor) {
+        return getVisasMatching(visaTokens, preview -> true, executor);
+    }
+
+    /**
+     * Validates visa JWT tokens accepted by the filter and converts them to <code>Visa</code> POJOs.
+     * The filter is applied to unverified contents of the tokens, so tokens it rejects cost neither key lookups
+     * nor signature verification; all the Visas returned are verified nevertheless. Tokens are validated based on JKUs.
+     *
+     * @param visaTokens Visa JWT tokens.
+     * @param filter     Filter of visa tokens to verify, e.g. <code>p -> p.isVisaType(VisaType.ControlledAccessGrants)</code>.
+     * @return List of GA4GH Visas accepted by the filter that validated successfully, in the order of visa tokens provided.
+     */
+    public Collection<Visa> getVisasMatching(Collection<String> visaTokens, Predicate<TokenPreview> filter) {
+        return visaTokens
+                .stream()
+                .map(visaToken -> getVisa(visaToken, filter))
+                .filter(Optional::isPresent)
+                .map(Optional::get)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Validates visa JWT tokens accepted by the filter and converts them to <code>Visa</code> POJOs.
+     * The filter is applied to unverified contents of the tokens, so tokens it rejects cost neither key lookups
+     * nor signature verification; all the Visas returned are verified nevertheless. Tokens are validated based on JKUs.
+     * Keys are resolved up front, once per distinct JKU and key ID,
+     * then signatures are verified in parallel using the executor provided.
+     *
+     * @param visaTokens Visa JWT tokens.
+     * @param filter     Filter of visa tokens to verify.
+     * @param executor   Executor to verify visa tokens on, e.g. virtual thread per task executor or a bounded pool.
+     * @return List of GA4GH Visas accepted by the filter that validated successfully, in the order of visa tokens provided.
+     */
+    public Collection<Visa> getVisasMatching(Collection<String> visaTokens, Predicate<TokenPreview> filter, Executor executor) {
+        Map<Pair<String, String>, Jwk> jwks = new HashMap<>();
+        List<CompletableFuture<Optional<Visa>>> visas = new ArrayList<>(visaTokens.size());
+        for (String visaToken : visaTokens) {
+            TokenPreview preview;
+            Jwk jwk;
+            try {
+                preview = previewVisaToken(visaToken);
+            } catch (JwtException e) {
+                log.warn("Rejected visa token: {}", e.getMessage());
+                continue;
+            }
+            if (!filter.test(preview)) {
+                continue;
+            }
+            var cachedVisa = getCachedVisa(visaToken);
+            if (cachedVisa.isPresent()) {
+                visas.add(CompletableFuture.completedFuture(cachedVisa));
+                continue;
+            }
+            try {
+                var urlAndId = new ImmutablePair<>(preview.getJku(), preview.getKid());
+                jwk = jwks.computeIfAbsent(urlAndId, k -> getJWKProvider(preview).get(k.getKey(), k.getValue()));
+            } catch (Exception e) {
+                instrumentation.validationFailure(preview.getIss(), keyFailureOf(e));
+                log.error(e.getMessage(), e);
+                continue;
+            }
+            visas.add(CompletableFuture.supplyAsync(() -> getVisaWithJWK(visaToken, preview, jwk), executor));
+        }
+        return visas
+                .stream()
+                .map(CompletableFuture::join)
+                .filter(Optional::isPresent)
+                .map(Optional::get)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Validates access JWT token and checks whether any of the Visas obtained from "/userinfo" endpoint matches the predicate.
+     * Visa tokens are verified one by one, in the order given, and verification stops at the first match.
+     *
+     * @param accessToken            Access JWT token.
+     * @param openIDConfigurationURL ".well-known/openid-configuration" full URL.
+     * @param predicate              Predicate over verified Visas, e.g. grant of a specific dataset.
+     * @param order                  Order to verify visa tokens in, e.g. {@link TokenPreview#likelyFirst(Predicate)},
+     *                               or <code>null</code> to keep the order of the passport.
+     * @return <code>true</code> if any Visa validated successfully and matches the predicate.
+     */
+    public boolean anyVisaMatches(String accessToken, String openIDConfigurationURL, Predicate<Visa> predicate, Comparator<TokenPreview> order) {
+        return anyVisaMatches(getVisaTokens(accessToken, openIDConfigurationURL), predicate, order);
+    }
+
+    /**
+     * Checks whether any of the visa JWT tokens validates successfully and matches the predicate.
+     * Visa tokens are verified one by one, in the order given, and verification stops at the first match.
+     *
+     * @param visaTokens Visa JWT tokens.
+     * @param predicate  Predicate over verified Visas, e.g. grant of a specific dataset.
+     * @param order      Order to verify visa tokens in, or <code>null</code> to keep the order provided.
+     * @return <code>true</code> if any Visa validated successfully and matches the predicate.
+     */
+    public boolean anyVisaMatches(Collection<String> visaTokens, Predicate<Visa> predicate, Comparator<TokenPreview> order) {
+        return streamVisas(visaTokens, order).anyMatch(predicate);
+    }
+
+    /**
+     * Returns lazy stream of Visas: each visa token is verified only when the stream reaches it,
+     * so short-circuiting operations like <code>anyMatch</code> or <code>findFirst</code> skip verifying the rest.
+     * Visa tokens that don't validate are left out. When the order is given, all tokens are previewed
+     * (decoded without verification) up front to be sorted, which is cheap compared to verification.
+     *
+     * @param visaTokens Visa JWT tokens.
+     * @param order      Order to verify visa tokens in, or <code>null</code> to keep the order provided.
+     * @return Stream of GA4GH Visas that validated successfully.
+     */
+    public Stream<Visa> streamVisas(Collection<String> visaTokens, Comparator<TokenPreview> order) {
+        return streamVerifications(visaTokens, order).flatMap(verification -> verification.get().stream());
+    }
+
+    /**
+     * Returns lazy stream of deferred verifications of the visa tokens that pass the pre-screening,
+     * so that tokens left can be told apart from Visas without verifying any token.
+     */
+    private Stream<Supplier<Optional<Visa>>> streamVerifications(Collection<String> visaTokens, Comparator<TokenPreview> order) {
+        Stream<Pair<String, TokenPreview>> previews = visaTokens
+                .stream()
+                .flatMap(visaToken -> tryPreviewVisaToken(visaToken).<Pair<String, TokenPreview>>map(preview -> new ImmutablePair<>(visaToken, preview)).stream());
+        if (order != null) {
+            previews = previews.sorted(Comparator.comparing(Pair::getValue, order));
+        }
+        return previews.map(tokenAndPreview -> () -> getVisa(tokenAndPreview.getKey(), tokenAndPreview.getValue()));
+    }
+
+    /**
+     * Returns publisher of Visas emitting each Visa as soon as it is verified. Visa tokens are verified on demand only,
+     * so subscribers requesting one Visa at a time and cancelling once access is decided skip verifying the rest.
+     * Visa tokens that don't validate are left out.
+     *
+     * @param visaTokens Visa JWT tokens.
+     * @param order      Order to verify visa tokens in, or <code>null</code> to keep the order provided.
+     * @param executor   Executor to verify visa tokens and signal subscribers on.
+     * @return Publisher of GA4GH Visas that validated successfully.
+     */
+    public Flow.Publisher<Visa> publishVisas(Collection<String> visaTokens, Comparator<TokenPreview> order, Executor executor) {
+        List<String> tokens = List.copyOf(visaTokens);
+        return new VisaPublisher(() -> streamVerifications(tokens, order), executor);
+    }
+
     /**
      * Validates visa JWT token and converts it to <code>Visa</code> POJO.
-     * Token is validated based on JKU.
+     * Token is validated based on JKU. If visa cache is enabled, previously validated tokens that pass expiration,
+     * issuer and JKU checks are served from it, as read-only visas.
      *
      * @param visaToken Visa JWT token.
      * @return Optional <code>Visa</code> POJO: present if token validated successfully.
      */
     public Optional<Visa> getVisa(String visaToken) {
-        var jku = getHeaderItemValue(visaToken, JKU);
-        var keyId = getHeaderItemValue(visaToken, KID);
-        var jwk = JWKProvider.INSTANCE.get(jku, keyId);
+        return tryPreviewVisaToken(visaToken).flatMap(preview -> getVisa(visaToken, preview));
+    }
+
+    private Optional<Visa> getVisa(String visaToken, Predicate<TokenPreview> filter) {
+        return tryPreviewVisaToken(visaToken).filter(filter).flatMap(preview -> getVisa(visaToken, preview));
+    }
+
+    private Optional<Visa> getVisa(String visaToken, TokenPreview preview) {
+        var cachedVisa = getCachedVisa(visaToken);
+        if (cachedVisa.isPresent()) {
+            return cachedVisa;
+        }
+        return getVisaWithJKU(visaToken, preview);
+    }
+
+    private Optional<TokenPreview> tryPreviewVisaToken(String visaToken) {
+        try {
+            return Optional.of(previewVisaToken(visaToken));
+        } catch (JwtException e) {
+            log.warn("Rejected visa token: {}", e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    private Optional<Visa> getVisaWithJKU(String visaToken, TokenPreview preview) {
+        Jwk jwk;
+        try {
+            jwk = getJWKProvider(preview).get(preview.getJku(), preview.getKid());
+        } catch (RuntimeException e) {
+            instrumentation.validationFailure(preview.getIss(), keyFailureOf(e));
+            log.error(e.getMessage(), e);
+            return Optional.empty();
+        }
+        return getVisaWithJWK(visaToken, preview, jwk);
+    }
+
+    private Optional<Visa> getCachedVisa(String visaToken) {
+        var cache = visaCache;
+        return cache == null ? Optional.empty() : cache.get(visaToken);
+    }
+
+    private Optional<Visa> getVisaWithJWK(String visaToken, TokenPreview preview, Jwk jwk) {
+        RSAPublicKey publicKey;
         try {
-            return getVisaWithPublicKey(visaToken, (RSAPublicKey) jwk.getPublicKey());
+            publicKey = keys.getPublicKey(jwk);
         } catch (Exception e) {
+            instrumentation.validationFailure(preview.getIss(), Failure.KEY_NOT_FOUND);
             log.error(e.getMessage(), e);
             return Optional.empty();
         }
+        var visa = verifyVisa(visaToken, preview.getIss(), publicKey);
+        var cache = visaCache;
+        return cache == null ? visa : visa.map(v -> cache.put(visaToken, v));
     }
 
     /**
@@ -132,7 +470,7 @@ public enum Clearinghouse {
      */
     public Optional<Visa> getVisaWithPEMPublicKey(String visaToken, String pemPublicKey) {
         try {
-            return getVisaWithPublicKey(visaToken, readPEMKey(pemPublicKey));
+            return getVisaWithPublicKey(visaToken, keys.getPublicKey(pemPublicKey));
         } catch (GeneralSecurityException e) {
             log.error(e.getMessage(), e);
             return Optional.empty();
@@ -148,56 +486,186 @@ public enum Clearinghouse {
      * @return Optional <code>Visa</code> POJO: present if token validated successfully.
      */
     public Optional<Visa> getVisaWithPublicKey(String visaToken, RSAPublicKey publicKey) {
+        TokenPreview preview;
         try {
-            byte[] encoded = publicKey.getEncoded();
-            X509EncodedKeySpec keySpec = new X509EncodedKeySpec(encoded);
-            KeyFactory keyFactory = KeyFactory.getInstance("RSA");
-            PublicKey pubKey = keyFactory.generatePublic(keySpec);
-
-            Jws<Claims> jws = Jwts.parser().verifyWith(pubKey).build().parseSignedClaims(visaToken);
-            Claims claims = jws.getBody();
-            if (claims.containsKey(GA_4_GH_VISA_V_1)) {
-                String visaJson = new Gson().toJson(claims.get(GA_4_GH_VISA_V_1));
-                Visa visa = new Gson().fromJson(visaJson, Visa.class);
-                visa.setSub(jws.getBody().getSubject());
-                return Optional.of(visa);
-            }
+            preview = preview(visaToken);
+        } catch (JwtException e) {
+            log.warn("Rejected visa token: {}", e.getMessage());
+            return Optional.empty();
+        }
+        return verifyVisa(visaToken, preview.getIss(), publicKey);
+    }
+
+    private Optional<Visa> verifyVisa(String visaToken, String issuer, RSAPublicKey publicKey) {
+        try {
+            return Optional.of(readVisa(visaToken, issuer, publicKey));
+        } catch (ValidationException e) {
+            log.error(e.getMessage());
         } catch (SignatureException e) {
             log.error("Invalid signature in visa token", e);
-        } catch (JsonSyntaxException e) {
-            log.error("Invalid JSON syntax in visa claim", e);
         } catch (Exception e) {
             log.error("Error parsing or verifying visa token", e);
         }
         return Optional.empty();
     }
 
+    /**
+     * Verifies visa token signature and returns its "ga4gh_visa_v1" claim, recording timings and failures.
+     * The claim is decoded along with the rest of the payload by <code>ClaimsDeserializer</code>,
+     * and checked for the required fields only once the signature is verified.
+     *
+     * @throws JwtException If the token doesn't verify or its visa claim is missing or incomplete.
+     */
+    Visa readVisa(String visaToken, String issuer, RSAPublicKey publicKey) {
+        Claims claims = verify(visaToken, issuer, publicKey);
+        var timer = instrumentation.start(Stage.CLAIMS_DECODE, issuer);
+        boolean success = false;
+        try {
+            var visa = toVisa(claims);
+            success = true;
+            return visa;
+        } catch (ValidationException e) {
+            instrumentation.validationFailure(issuer, e.getFailure());
+            throw e;
+        } finally {
+            timer.stop(success);
+        }
+    }
+
+    private static Visa toVisa(Claims claims) {
+        if (!(claims.get(GA_4_GH_VISA_V_1) instanceof Visa visa)) {
+            throw new ValidationException(Failure.INVALID_CLAIMS, claims.containsKey(GA_4_GH_VISA_V_1)
+                    ? GA_4_GH_VISA_V_1 + " claim in visa token is not an object"
+                    : "No " + GA_4_GH_VISA_V_1 + " claim in visa token");
+        }
+        String missing = visa.getType() == null ? "type"
+                : visa.getAsserted() == null ? "asserted"
+                : visa.getValue() == null ? "value"
+                : visa.getSource() == null ? "source"
+                : null;
+        if (missing != null) {
+            throw new ValidationException(Failure.INVALID_CLAIMS, "No \"" + missing + "\" in " + GA_4_GH_VISA_V_1 + " claim");
+        }
+        visa.setSub(claims.getSubject());
+        if (claims.getExpiration() != null) {
+            visa.setExp(claims.getExpiration().getTime() / 1000);
+        }
+        return visa;
+    }
+
+    /**
+     * Returns RSA public key of the JWK the visa token is signed with, resolving JWK by token's JKU and key ID.
+     *
+     * @throws ValidationException If the key can't be fetched or found, or is not a valid RSA key.
+     */
+    RSAPublicKey getVisaPublicKey(TokenPreview preview) {
+        try {
+            return keys.getPublicKey(getJWKProvider(preview).get(preview.getJku(), preview.getKid()));
+        } catch (Exception e) {
+            var failure = keyFailureOf(e);
+            instrumentation.validationFailure(preview.getIss(), failure);
+            var cause = e.getCause() == null ? e : e.getCause();
+            throw new ValidationException(failure, cause.getMessage(), e);
+        }
+    }
+
+    /**
+     * Classifies failure to resolve the signing key: I/O errors (including timeouts, open circuits
+     * and rejected requests) mean that the JWK set couldn't be fetched, anything else that the key wasn't found.
+     */
+    static Failure keyFailureOf(Throwable e) {
+        return isFetchFailure(e) ? Failure.KEY_FETCH_FAILED : Failure.KEY_NOT_FOUND;
+    }
+
+    /**
+     * Classifies failure to validate the token by the exception thrown, unwrapping <code>ValidationException</code>
+     * thrown by <code>ClaimsDeserializer</code>.
+     */
+    static Failure failureOf(Throwable e) {
+        var validationException = findValidationException(e);
+        if (validationException != null) {
+            return validationException.getFailure();
+        }
+        if (e instanceof ExpiredJwtException) {
+            return Failure.EXPIRED;
+        }
+        if (e instanceof PrematureJwtException) {
+            return Failure.PREMATURE;
+        }
+        if (e instanceof SignatureException) {
+            return Failure.INVALID_SIGNATURE;
+        }
+        if (e instanceof MalformedJwtException || e instanceof UnsupportedJwtException) {
+            return Failure.MALFORMED;
+        }
+        if (e instanceof ClaimJwtException || e instanceof JsonSyntaxException) {
+            return Failure.INVALID_CLAIMS;
+        }
+        if (isFetchFailure(e)) {
+            return Failure.KEY_FETCH_FAILED;
+        }
+        return Failure.UNKNOWN;
+    }
+
+    /**
+     * Checks whether the exception or any of its causes is an I/O error or a timeout.
+     */
+    static boolean isFetchFailure(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof IOException || cause instanceof TimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Verifies signature of the token and returns its claims, recording parsing and verification time and failures.
+     */
+    private Claims verify(String token, String issuer, RSAPublicKey publicKey) {
+        var timer = instrumentation.start(Stage.SIGNATURE_VERIFY, issuer);
+        boolean success = false;
+        try {
+            Jws<Claims> jws = keys.getParser(publicKey).parseSignedClaims(token);
+            success = true;
+            return jws.getPayload();
+        } catch (RuntimeException e) {
+            instrumentation.validationFailure(issuer, failureOf(e));
+            throw e;
+        } finally {
+            timer.stop(success);
+        }
+    }
+
+    /**
+     * Finds <code>ValidationException</code> among the exception and its causes, as other exceptions may wrap it.
+     */
+    private static ValidationException findValidationException(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ValidationException validationException) {
+                return validationException;
+            }
+        }
+        return null;
+    }
+
     /**
      * Validates access JWT token and returns a list of visa JWT tokens from "/userinfo" endpoint.
      * Access token is validated based on JWKs URL of the OpenID configuration.
+     * OpenID configuration is cached according to its HTTP caching headers.
      *
      * @param accessToken            Access JWT token.
      * @param openIDConfigurationURL ".well-known/openid-configuration" full URL.
      * @return List of visa JWT tokens.
      */
     public Collection<String> getVisaTokens(String accessToken, String openIDConfigurationURL) {
-        Request request = new Request.Builder()
-                .url(openIDConfigurationURL)
-                .get()
-                .build();
-
         try {
-            ResponseBody body = client.newCall(request).execute().body();
-            assert body != null;
-            String bodyString = body.string();
-            var jwksURL = gson.fromJson(bodyString, JsonObject.class).get(JWKS_URI).getAsString();
+            var jwksURL = getDiscovery(openIDConfigurationURL).get(openIDConfigurationURL);
 
-            var keyId = getHeaderItemValue(accessToken, KID);
-            var jwk = JWKProvider.INSTANCE.get(jwksURL, keyId);
+            var keyId = preview(accessToken).getKid();
+            var jwk = getJWKProvider(openIDConfigurationURL, jwksURL).get(jwksURL, keyId);
 
-            return getVisaTokensWithPublicKey(accessToken, (RSAPublicKey) jwk.getPublicKey());
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+            return getVisaTokensWithPublicKey(accessToken, keys.getPublicKey(jwk));
         } catch (Exception e) {
             log.error(e.getMessage(), e);
             return Collections.emptyList();
@@ -214,7 +682,7 @@ public enum Clearinghouse {
      */
     public Collection<String> getVisaTokensWithPEMPublicKey(String accessToken, String pemPublicKey) {
         try {
-            return getVisaTokensWithPublicKey(accessToken, readPEMKey(pemPublicKey));
+            return getVisaTokensWithPublicKey(accessToken, keys.getPublicKey(pemPublicKey));
         } catch (GeneralSecurityException e) {
             log.error(e.getMessage(), e);
             return Collections.emptyList();
@@ -224,6 +692,8 @@ public enum Clearinghouse {
     /**
      * Validates access JWT token and returns a list of visa JWT tokens from "/userinfo" endpoint.
      * Access token is validated based on RSA public key provided.
+     * If passport cache is enabled, passports previously obtained from the same endpoint with the same token
+     * are served from it once the token is validated.
      *
      * @param accessToken Access JWT token.
      * @param publicKey   RSA public key.
@@ -231,32 +701,24 @@ public enum Clearinghouse {
      */
     public Collection<String> getVisaTokensWithPublicKey(String accessToken, RSAPublicKey publicKey) {
         try {
-            byte[] encoded = publicKey.getEncoded();
-            X509EncodedKeySpec keySpec = new X509EncodedKeySpec(encoded);
-            KeyFactory keyFactory = KeyFactory.getInstance("RSA");
-            PublicKey pubKey = keyFactory.generatePublic(keySpec);
-
-            Jws<Claims> jws = Jwts.parser().verifyWith(pubKey).build().parseSignedClaims(accessToken);
-            String userInfoEndpoint = jws.getBody().getIssuer() + USERINFO;
-            Request request = new Request.Builder()
-                    .header(AUTHORIZATION, BEARER + accessToken)
-                    .url(userInfoEndpoint)
-                    .get()
-                    .build();
-
-            ResponseBody body = client.newCall(request).execute().body();
-            assert body != null;
-            String bodyString = body.string();
-            var passport = gson.fromJson(bodyString, JsonObject.class).getAsJsonArray(GA_4_GH_PASSPORT_V_1);
-
-            return passport.asList().stream().map(x -> x.toString().replaceAll("\"", "")).toList();
-
+            Claims claims = verifyAccessToken(accessToken, publicKey);
+            var userInfoEndpoint = claims.getIssuer() + USERINFO;
+            var cachedPassport = getCachedPassport(userInfoEndpoint, accessToken);
+            if (cachedPassport.isPresent()) {
+                return cachedPassport.get();
+            }
+            Request request = buildUserInfoRequest(accessToken, userInfoEndpoint);
+            var passport = fetchPassport(request);
+            cachePassport(userInfoEndpoint, accessToken, claims, passport);
+            return passport;
         } catch (IOException e) {
             throw new RuntimeException(e);
         } catch (SignatureException e) {
             log.error("Invalid signature in visa token", e);
         } catch (JsonSyntaxException e) {
             log.error("Invalid JSON syntax in visa claim", e);
+        } catch (UserInfoException e) {
+            log.error(e.getMessage(), e);
         } catch (Exception e) {
             log.error("Error parsing or verifying visa token", e);
         }
@@ -266,40 +728,550 @@ public enum Clearinghouse {
 
     /**
      * Returns a list of visa JWT tokens from "/userinfo" endpoint provided the opaque access token.
+     * If passport cache is enabled, passports previously obtained from the same endpoint with the same token are served from it.
      *
      * @param accessToken      Opaque access token.
      * @param userInfoEndpoint "/userinfo" endpoint URL.
      * @return List of visa JWT tokens.
      */
     public Collection<String> getVisaTokensFromOpaqueToken(String accessToken, String userInfoEndpoint) {
-        Request request = new Request.Builder()
+        var cachedPassport = getCachedOpaquePassport(userInfoEndpoint, accessToken);
+        if (cachedPassport.isPresent()) {
+            return cachedPassport.get();
+        }
+        Request request = buildUserInfoRequest(accessToken, userInfoEndpoint);
+
+        try {
+            var passport = fetchPassport(request);
+            cacheOpaquePassport(userInfoEndpoint, accessToken, passport);
+            return passport;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Asynchronous counterpart of {@link #getVisas(String, String)}.
+     * Discovery, "/userinfo" and JWKs fetches are chained without blocking the caller.
+     *
+     * @param accessToken            Access JWT token.
+     * @param openIDConfigurationURL ".well-known/openid-configuration" full URL.
+     * @return Future list of GA4GH Visas.
+     */
+    public CompletableFuture<Collection<Visa>> getVisasAsync(String accessToken, String openIDConfigurationURL) {
+        return getVisaTokensAsync(accessToken, openIDConfigurationURL).thenCompose(this::getVisasAsync);
+    }
+
+    /**
+     * Asynchronous counterpart of {@link #getVisasWithPublicKey(String, RSAPublicKey)}.
+     *
+     * @param accessToken Access JWT token.
+     * @param publicKey   RSA public key.
+     * @return Future list of GA4GH Visas.
+     */
+    public CompletableFuture<Collection<Visa>> getVisasWithPublicKeyAsync(String accessToken, RSAPublicKey publicKey) {
+        return getVisaTokensWithPublicKeyAsync(accessToken, publicKey).thenCompose(this::getVisasAsync);
+    }
+
+    /**
+     * Validates visa JWT tokens and converts them to <code>Visa</code> POJOs without blocking the caller.
+     * Tokens are validated based on JKUs.
+     *
+     * @param visaTokens Visa JWT tokens.
+     * @return Future list of GA4GH Visas that validated successfully, in the order of visa tokens provided.
+     */
+    public CompletableFuture<Collection<Visa>> getVisasAsync(Collection<String> visaTokens) {
+        List<CompletableFuture<Optional<Visa>>> visas = visaTokens.stream().map(this::getVisaAsync).toList();
+        return CompletableFuture.allOf(visas.toArray(CompletableFuture[]::new))
+                .thenApply(v -> visas
+                        .stream()
+                        .map(CompletableFuture::join)
+                        .filter(Optional::isPresent)
+                        .map(Optional::get)
+                        .collect(Collectors.toList()));
+    }
+
+    /**
+     * Asynchronous counterpart of {@link #getVisa(String)}: JWKs are fetched without blocking the caller.
+     *
+     * @param visaToken Visa JWT token.
+     * @return Future optional <code>Visa</code> POJO: present if token validated successfully.
+     */
+    public CompletableFuture<Optional<Visa>> getVisaAsync(String visaToken) {
+        try {
+            var preview = previewVisaToken(visaToken);
+            var cachedVisa = getCachedVisa(visaToken);
+            if (cachedVisa.isPresent()) {
+                return CompletableFuture.completedFuture(cachedVisa);
+            }
+            return getJWKProvider(preview).getAsync(preview.getJku(), preview.getKid())
+                    .thenApply(jwk -> getVisaWithJWK(visaToken, preview, jwk))
+                    .exceptionally(e -> {
+                        instrumentation.validationFailure(preview.getIss(), keyFailureOf(e));
+                        log.error(e.getMessage(), e);
+                        return Optional.empty();
+                    });
+        } catch (Exception e) {
+            log.error(e.getMessage(), e);
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+    }
+
+    /**
+     * Asynchronous counterpart of {@link #getVisaTokens(String, String)}.
+     * Discovery, JWKs and "/userinfo" fetches are chained without blocking the caller.
+     *
+     * @param accessToken            Access JWT token.
+     * @param openIDConfigurationURL ".well-known/openid-configuration" full URL.
+     * @return Future list of visa JWT tokens.
+     */
+    public CompletableFuture<Collection<String>> getVisaTokensAsync(String accessToken, String openIDConfigurationURL) {
+        try {
+            var keyId = preview(accessToken).getKid();
+            return getDiscovery(openIDConfigurationURL).getAsync(openIDConfigurationURL)
+                    .thenCompose(jwksURL -> getJWKProvider(openIDConfigurationURL, jwksURL).getAsync(jwksURL, keyId))
+                    .thenCompose(jwk -> {
+                        try {
+                            return getVisaTokensWithPublicKeyAsync(accessToken, keys.getPublicKey(jwk));
+                        } catch (Exception e) {
+                            return CompletableFuture.failedFuture(e);
+                        }
+                    })
+                    .exceptionally(e -> {
+                        log.error(e.getMessage(), e);
+                        return Collections.emptyList();
+                    });
+        } catch (Exception e) {
+            log.error(e.getMessage(), e);
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+    }
+
+    /**
+     * Asynchronous counterpart of {@link #getVisaTokensWithPublicKey(String, RSAPublicKey)}.
+     *
+     * @param accessToken Access JWT token.
+     * @param publicKey   RSA public key.
+     * @return Future list of visa JWT tokens.
+     */
+    public CompletableFuture<Collection<String>> getVisaTokensWithPublicKeyAsync(String accessToken, RSAPublicKey publicKey) {
+        Claims claims;
+        try {
+            claims = verifyAccessToken(accessToken, publicKey);
+        } catch (Exception e) {
+            log.error("Error parsing or verifying access token", e);
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+        var userInfoEndpoint = claims.getIssuer() + USERINFO;
+        var cachedPassport = getCachedPassport(userInfoEndpoint, accessToken);
+        if (cachedPassport.isPresent()) {
+            return CompletableFuture.completedFuture(cachedPassport.get());
+        }
+        return fetchPassportAsync(buildUserInfoRequest(accessToken, userInfoEndpoint))
+                .thenApply(passport -> {
+                    cachePassport(userInfoEndpoint, accessToken, claims, passport);
+                    return passport;
+                });
+    }
+
+    /**
+     * Asynchronous counterpart of {@link #getVisaTokensFromOpaqueToken(String, String)}.
+     *
+     * @param accessToken      Opaque access token.
+     * @param userInfoEndpoint "/userinfo" endpoint URL.
+     * @return Future list of visa JWT tokens.
+     */
+    public CompletableFuture<Collection<String>> getVisaTokensFromOpaqueTokenAsync(String accessToken, String userInfoEndpoint) {
+        var cachedPassport = getCachedOpaquePassport(userInfoEndpoint, accessToken);
+        if (cachedPassport.isPresent()) {
+            return CompletableFuture.completedFuture(cachedPassport.get());
+        }
+        return fetchPassportAsync(buildUserInfoRequest(accessToken, userInfoEndpoint))
+                .thenApply(passport -> {
+                    cacheOpaquePassport(userInfoEndpoint, accessToken, passport);
+                    return passport;
+                });
+    }
+
+    /**
+     * Fetches and caches OpenID configurations and JWK sets ahead of time, e.g. at startup,
+     * so that first validations don't pay for cold fetches. URLs ending with ".well-known/openid-configuration"
+     * are treated as OpenID configuration URLs: both the configuration and the JWK set it points to are fetched.
+     * Other URLs are treated as JWK set URLs, e.g. JKUs of visa tokens. URLs are fetched concurrently;
+     * failures are logged and don't affect other URLs.
+     *
+     * @param urls OpenID configuration URLs and JWK set URLs.
+     * @return Number of URLs prewarmed successfully.
+     */
+    public int prewarm(Collection<String> urls) {
+        List<CompletableFuture<Boolean>> results = new ArrayList<>(urls.size());
+        for (String url : urls) {
+            CompletableFuture<Void> result = url.endsWith(OPENID_CONFIGURATION)
+                    ? getDiscovery(url).getAsync(url).thenCompose(jwksURL -> getJWKProvider(url, jwksURL).prewarm(jwksURL))
+                    : getJWKProvider(url).prewarm(url);
+            results.add(result.handle((v, e) -> {
+                if (e != null) {
+                    log.warn("Failed to prewarm {}: {}", url, e.getMessage());
+                }
+                return e == null;
+            }));
+        }
+        return (int) results.stream().map(CompletableFuture::join).filter(Boolean::booleanValue).count();
+    }
+
+    /**
+     * Saves cached OpenID configurations and JWK sets to the file, to be loaded by {@link #loadSnapshot(Path)}
+     * in a new process. The file is replaced atomically.
+     *
+     * @param path Snapshot file.
+     * @throws IOException If the file can't be written.
+     */
+    public void saveSnapshot(Path path) throws IOException {
+        List<HttpDocumentCache.Entry> discovery = new ArrayList<>(jwksURLs.entries());
+        List<HttpDocumentCache.Entry> jwks = new ArrayList<>(jwkProvider.snapshot());
+        for (IssuerRegistry.Issuer issuer : issuerRegistry.getAll()) {
+            discovery.addAll(issuer.getDiscovery().entries());
+            jwks.addAll(issuer.getJwkProvider().snapshot());
+        }
+        new CacheSnapshot(discovery, jwks).write(path);
+    }
+
+    /**
+     * Loads OpenID configurations and JWK sets saved by {@link #saveSnapshot(Path)}.
+     * Loaded documents are served right away, so validations succeed even if an identity provider is briefly
+     * unreachable, and are revalidated with the servers in the background on first use.
+     * Documents already cached and documents older than one day are skipped.
+     *
+     * @param path Snapshot file.
+     * @return Number of documents loaded.
+     * @throws IOException If the file can't be read or is not a valid snapshot.
+     */
+    public int loadSnapshot(Path path) throws IOException {
+        var snapshot = CacheSnapshot.read(path);
+        Map<JWKProvider, List<HttpDocumentCache.Entry>> jwks = snapshot.jwks().stream()
+                .collect(Collectors.groupingBy(entry -> getJWKProvider(entry.url())));
+        Map<HttpDocumentCache<String>, List<HttpDocumentCache.Entry>> discovery = snapshot.discovery().stream()
+                .collect(Collectors.groupingBy(entry -> getDiscovery(entry.url())));
+        int restored = 0;
+        for (var entry : discovery.entrySet()) {
+            restored += entry.getKey().restore(entry.getValue());
+        }
+        for (var entry : jwks.entrySet()) {
+            restored += entry.getKey().restore(entry.getValue());
+        }
+        return restored;
+    }
+
+    /**
+     * Returns failure accounting of the issuer registered with {@link Builder#issuer(IssuerConfig)}.
+     *
+     * @param issuer Issuer identifier.
+     * @return Optional <code>IssuerStats</code>: present if the issuer is registered.
+     */
+    public Optional<IssuerStats> getIssuerStats(String issuer) {
+        return Optional.ofNullable(issuerRegistry.get(issuer)).map(IssuerRegistry.Issuer::getStats);
+    }
+
+    /**
+     * Returns <code>JWKProvider</code> of the registered issuer of the visa token, or the shared one.
+     */
+    private JWKProvider getJWKProvider(TokenPreview preview) {
+        var issuer = issuerRegistry.get(preview.getIss());
+        return issuer == null ? jwkProvider : issuer.getJwkProvider();
+    }
+
+    /**
+     * Returns <code>JWKProvider</code> of the registered issuer owning the JWK set URL, or the shared one.
+     */
+    private JWKProvider getJWKProvider(String jku) {
+        var issuer = issuerRegistry.getByJKU(jku);
+        return issuer == null ? jwkProvider : issuer.getJwkProvider();
+    }
+
+    /**
+     * Returns <code>JWKProvider</code> for access tokens: the one of the registered issuer serving the OpenID configuration,
+     * or the one resolved by the JWK set URL.
+     */
+    private JWKProvider getJWKProvider(String openIDConfigurationURL, String jwksURL) {
+        var issuer = issuerRegistry.getByEndpoint(openIDConfigurationURL);
+        return issuer == null ? getJWKProvider(jwksURL) : issuer.getJwkProvider();
+    }
+
+    /**
+     * Returns OpenID configuration cache of the registered issuer serving the configuration, or the shared one.
+     */
+    private HttpDocumentCache<String> getDiscovery(String openIDConfigurationURL) {
+        var issuer = issuerRegistry.getByEndpoint(openIDConfigurationURL);
+        return issuer == null ? jwksURLs : issuer.getDiscovery();
+    }
+
+    /**
+     * Returns HTTP client of the registered issuer serving the endpoint, or the shared one.
+     */
+    private OkHttpClient getClient(Request request) {
+        var issuer = issuerRegistry.getByEndpoint(request.url().toString());
+        return issuer == null ? client : issuer.getClient();
+    }
+
+    private Claims verifyAccessToken(String accessToken, RSAPublicKey publicKey) {
+        var preview = preview(accessToken);
+        return verify(accessToken, preview.getIss(), publicKey);
+    }
+
+    private Optional<Collection<String>> getCachedPassport(String userInfoEndpoint, String accessToken) {
+        return passportCache == null ? Optional.empty() : passportCache.get(userInfoEndpoint, accessToken);
+    }
+
+    private Optional<Collection<String>> getCachedOpaquePassport(String userInfoEndpoint, String accessToken) {
+        return passportCache == null ? Optional.empty() : passportCache.getOpaque(userInfoEndpoint, accessToken);
+    }
+
+    private void cachePassport(String userInfoEndpoint, String accessToken, Claims claims, Collection<String> passport) {
+        if (passportCache != null) {
+            var expiration = claims.getExpiration();
+            passportCache.put(userInfoEndpoint, accessToken, expiration == null ? null : expiration.getTime() / 1000, passport);
+        }
+    }
+
+    private void cacheOpaquePassport(String userInfoEndpoint, String accessToken, Collection<String> passport) {
+        if (passportCache != null) {
+            passportCache.putOpaque(userInfoEndpoint, accessToken, passport);
+        }
+    }
+
+    /**
+     * Fetches passport from "/userinfo" endpoint. Concurrent identical requests (same URL and same bearer token)
+     * share one in-flight call and its result.
+     */
+    private Collection<String> fetchPassport(Request request) throws IOException {
+        try {
+            return userInfoFetches.execute(userInfoKey(request), () -> {
+                try {
+                    return executeUserInfoRequest(request);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private CompletableFuture<Collection<String>> fetchPassportAsync(Request request) {
+        return userInfoFetches.executeAsync(userInfoKey(request), () -> executeUserInfoRequestAsync(request));
+    }
+
+    private Collection<String> executeUserInfoRequest(Request request) throws IOException {
+        var timer = instrumentation.start(Stage.USERINFO_FETCH, request.url().toString());
+        boolean success = false;
+        try (Response response = getClient(request).newCall(request).execute()) {
+            var passport = readPassport(response);
+            success = true;
+            return passport;
+        } finally {
+            timer.stop(success);
+        }
+    }
+
+    private CompletableFuture<Collection<String>> executeUserInfoRequestAsync(Request request) {
+        var timer = instrumentation.start(Stage.USERINFO_FETCH, request.url().toString());
+        return HttpCalls.enqueue(getClient(request), request, this::readPassport)
+                .whenComplete((passport, throwable) -> timer.stop(throwable == null));
+    }
+
+    private static String userInfoKey(Request request) {
+        return request.url() + " " + Digests.sha256(String.valueOf(request.header(AUTHORIZATION)));
+    }
+
+    private Request buildUserInfoRequest(String accessToken, String userInfoEndpoint) {
+        return new Request.Builder()
                 .header(AUTHORIZATION, BEARER + accessToken)
                 .url(userInfoEndpoint)
                 .get()
                 .build();
+    }
+
+    private Collection<String> readPassport(Response response) throws IOException {
+        if (!response.isSuccessful()) {
+            throw new UserInfoException("Response " + response.code() + " from " + response.request().url());
+        }
+        ResponseBody body = response.body();
+        if (body == null) {
+            throw new IOException("Empty response from " + response.request().url());
+        }
+        return Collections.unmodifiableList(PassportReader.readVisaTokens(body.charStream()));
+    }
 
+    private String parseJWKsURL(String openIDConfiguration) {
+        return gson.fromJson(openIDConfiguration, JsonObject.class).get(JWKS_URI).getAsString();
+    }
+
+    /**
+     * Pre-screens the token without verifying its signature, so that malformed, expired, premature tokens
+     * and tokens from untrusted issuers are rejected before any key lookup or RSA operation.
+     */
+    private TokenPreview preview(String token) {
+        TokenPreview preview;
         try {
-            ResponseBody body = client.newCall(request).execute().body();
-            assert body != null;
-            String bodyString = body.string();
-            var passport = gson.fromJson(bodyString, JsonObject.class).getAsJsonArray(GA_4_GH_PASSPORT_V_1);
-            return passport.asList().stream().map(x -> x.toString().replaceAll("\"", "")).toList();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+            preview = TokenPreview.parse(token);
+        } catch (MalformedJwtException e) {
+            instrumentation.validationFailure(null, Failure.MALFORMED);
+            throw e;
         }
+        long now = System.currentTimeMillis() / 1000;
+        if (preview.isExpired(now)) {
+            instrumentation.validationFailure(preview.getIss(), Failure.EXPIRED);
+            throw new ValidationException(Failure.EXPIRED, "Token has expired");
+        }
+        if (preview.isPremature(now)) {
+            instrumentation.validationFailure(preview.getIss(), Failure.PREMATURE);
+            throw new ValidationException(Failure.PREMATURE, "Token is not valid yet");
+        }
+        var issuers = trustedIssuers;
+        if (issuers != null && (preview.getIss() == null || !issuers.contains(preview.getIss()))) {
+            instrumentation.validationFailure(preview.getIss(), Failure.UNTRUSTED_ISSUER);
+            throw new ValidationException(Failure.UNTRUSTED_ISSUER, "Untrusted issuer: " + preview.getIss());
+        }
+        return preview;
     }
 
-    private RSAPublicKey readPEMKey(String publicKey) throws GeneralSecurityException {
-        KeyFactory keyFactory = KeyFactory.getInstance(RSA);
-        publicKey = publicKey.replaceAll(KEY_WRAPPING, "").replace(System.lineSeparator(), "").replace(" ", "").trim();
-        var decodedKey = Base64.getDecoder().decode(publicKey);
-        return (RSAPublicKey) keyFactory.generatePublic(new X509EncodedKeySpec(decodedKey));
+    /**
+     * Pre-screens the visa token, additionally requiring JKU and key ID in its header
+     * and, for registered issuers, requiring the JKU to be registered for the issuer.
+     */
+    TokenPreview previewVisaToken(String visaToken) {
+        var preview = preview(visaToken);
+        if (preview.getJku() == null || preview.getKid() == null) {
+            instrumentation.validationFailure(preview.getIss(), Failure.MALFORMED);
+            throw new MalformedJwtException("No " + JKU + " or " + KID + " in visa token header");
+        }
+        var issuer = issuerRegistry.get(preview.getIss());
+        if (issuer != null && !issuer.isTrustedJKU(preview.getJku())) {
+            instrumentation.validationFailure(preview.getIss(), Failure.UNTRUSTED_JKU);
+            throw new ValidationException(Failure.UNTRUSTED_JKU, "JKU " + preview.getJku() + " is not registered for issuer " + preview.getIss());
+        }
+        return preview;
     }
 
-    private String getHeaderItemValue(String token, String key) {
-        var tokenArray = token.split("[.]");
-        byte[] decodedHeader = Base64.getUrlDecoder().decode(tokenArray[0]);
-        String decodedHeaderString = new String(decodedHeader);
-        return gson.fromJson(decodedHeaderString, JsonObject.class).get(key).getAsString();
+    /**
+     * Builder of <code>Clearinghouse</code> instances.
+     * Instances built with default HTTP client configuration, instrumentation and key refetch interval
+     * share HTTP client and JWKs cache with <code>INSTANCE</code>.
+     */
+    public static final class Builder {
+
+        private HttpClientConfig httpClientConfig;
+
+        private VisaCache visaCache;
+
+        private PassportCache passportCache;
+
+        private Set<String> trustedIssuers;
+
+        private final Map<String, IssuerConfig> issuers = new LinkedHashMap<>();
+
+        private Instrumentation instrumentation = Instrumentation.NOOP;
+
+        private Duration minimumKeyRefetchInterval = JWKProvider.DEFAULT_MINIMUM_REFETCH_INTERVAL;
+
+        private Builder() {
+        }
+
+        /**
+         * Sets configuration of the HTTP client used for discovery, "/userinfo" and JWKs requests.
+         * The instance built gets its own HTTP client with its own connection pool.
+         *
+         * @param httpClientConfig <code>HttpClientConfig</code> instance.
+         * @return This builder.
+         */
+        public Builder httpClientConfig(HttpClientConfig httpClientConfig) {
+            this.httpClientConfig = httpClientConfig;
+            return this;
+        }
+
+        /**
+         * Enables caching of visas validated by JKU. Pass <code>null</code> to disable caching (default).
+         *
+         * @param visaCache <code>VisaCache</code> instance or <code>null</code>.
+         * @return This builder.
+         */
+        public Builder visaCache(VisaCache visaCache) {
+            this.visaCache = visaCache;
+            return this;
+        }
+
+        /**
+         * Enables caching of passports obtained from "/userinfo" endpoints, keyed by access token.
+         * Pass <code>null</code> to disable caching (default).
+         *
+         * @param passportCache <code>PassportCache</code> instance or <code>null</code>.
+         * @return This builder.
+         */
+        public Builder passportCache(PassportCache passportCache) {
+            this.passportCache = passportCache;
+            return this;
+        }
+
+        /**
+         * Restricts accepted tokens to the ones issued by the specified issuers ("iss" claim).
+         * Tokens from other issuers are rejected before any key lookup.
+         * Pass <code>null</code> to accept any issuer (default).
+         *
+         * @param trustedIssuers Trusted issuers or <code>null</code>.
+         * @return This builder.
+         */
+        public Builder trustedIssuers(Collection<String> trustedIssuers) {
+            this.trustedIssuers = trustedIssuers == null ? null : Set.copyOf(trustedIssuers);
+            return this;
+        }
+
+        /**
+         * Registers trusted issuer with its own HTTP client, concurrency limit and JWKs cache,
+         * isolating it from other issuers. Visas of the issuer signed with keys from unregistered JKUs are rejected
+         * without fetching anything. Once any issuer is registered, tokens are accepted only from registered issuers
+         * and from issuers passed to {@link #trustedIssuers(Collection)}; the latter share the default HTTP client
+         * and JWKs cache.
+         *
+         * @param issuerConfig <code>IssuerConfig</code> instance.
+         * @return This builder.
+         */
+        public Builder issuer(IssuerConfig issuerConfig) {
+            this.issuers.put(issuerConfig.getIssuer(), issuerConfig);
+            return this;
+        }
+
+        /**
+         * Sets instrumentation receiving per-stage timings, JWK cache statistics and validation failures.
+         *
+         * @param instrumentation <code>Instrumentation</code> instance, e.g. <code>JfrInstrumentation</code>.
+         * @return This builder.
+         */
+        public Builder instrumentation(Instrumentation instrumentation) {
+            this.instrumentation = instrumentation == null ? Instrumentation.NOOP : instrumentation;
+            return this;
+        }
+
+        /**
+         * Sets minimum interval between refetches of the same JWK set caused by unknown key IDs.
+         * Unknown key IDs are negatively cached for the same interval. Defaults to 30 seconds.
+         *
+         * @param minimumKeyRefetchInterval Minimum refetch interval.
+         * @return This builder.
+         */
+        public Builder minimumKeyRefetchInterval(Duration minimumKeyRefetchInterval) {
+            this.minimumKeyRefetchInterval = minimumKeyRefetchInterval;
+            return this;
+        }
+
+        /**
+         * Creates <code>Clearinghouse</code> instance.
+         *
+         * @return <code>Clearinghouse</code> instance.
+         */
+        public Clearinghouse build() {
+            return new Clearinghouse(this);
+        }
+
     }
+
 }
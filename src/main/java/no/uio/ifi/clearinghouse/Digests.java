@@ -0,0 +1,43 @@
+package no.uio.ifi.clearinghouse;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+/**
+ * Utility class for computing compact digests of tokens, used as cache keys instead of the tokens themselves.
+ */
+final class Digests {
+
+    private static final String SHA_256 = "SHA-256";
+
+    private Digests() {
+    }
+
+    /**
+     * Computes SHA-256 digest of the string and encodes it with unpadded URL-safe Base64.
+     *
+     * @param value String to digest.
+     * @return Base64-encoded digest.
+     */
+    static String sha256(String value) {
+        return sha256(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Computes SHA-256 digest of the bytes and encodes it with unpadded URL-safe Base64.
+     *
+     * @param value Bytes to digest.
+     * @return Base64-encoded digest.
+     */
+    static String sha256(byte[] value) {
+        try {
+            byte[] digest = MessageDigest.getInstance(SHA_256).digest(value);
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
@@ -0,0 +1,145 @@
+package no.uio.ifi.clearinghouse;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import no.uio.ifi.clearinghouse.model.Visa;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded per-subject cache of <code>Entitlements</code>. Entitlements are rebuilt only when the passport
+ * of the subject changes, and are evicted no later than the earliest expiration of their grants.
+ * Passports are first compared by identity of their visas, which is enough when visas are served
+ * from <code>VisaCache</code>, and only then by content.
+ */
+public class EntitlementIndex {
+
+    private final Duration maximumTtl;
+
+    private final Cache<String, Entry> cache;
+
+    /**
+     * Creates the index.
+     *
+     * @param maximumSize Maximum number of subjects to keep.
+     * @param maximumTtl  Maximum time to keep entitlements of the subject for.
+     */
+    public EntitlementIndex(long maximumSize, Duration maximumTtl) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("Maximum size must be positive");
+        }
+        if (maximumTtl.isNegative() || maximumTtl.isZero()) {
+            throw new IllegalArgumentException("Maximum TTL must be positive");
+        }
+        this.maximumTtl = maximumTtl;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfter(new EntitlementsExpiry())
+                .build();
+    }
+
+    /**
+     * Returns entitlements of the subject for the passport provided, rebuilding them only if the passport
+     * differs from the one the cached entitlements were built from.
+     *
+     * @param subject Subject ("sub" claim).
+     * @param visas   Validated visas of the subject's passport.
+     * @return <code>Entitlements</code> instance.
+     */
+    public Entitlements update(String subject, Collection<Visa> visas) {
+        return cache.asMap().compute(subject, (s, cached) -> {
+            if (cached != null && cached.hasSameVisas(visas)) {
+                return cached;
+            }
+            var fingerprint = Entitlements.fingerprint(visas);
+            var entitlements = cached != null && cached.entitlements().getFingerprint().equals(fingerprint)
+                    ? cached.entitlements()
+                    : Entitlements.of(subject, visas, fingerprint);
+            return new Entry(entitlements, visas.toArray(Visa[]::new));
+        }).entitlements();
+    }
+
+    /**
+     * Returns cached entitlements of the subject, if any.
+     *
+     * @param subject Subject ("sub" claim).
+     * @return Optional <code>Entitlements</code>.
+     */
+    public Optional<Entitlements> get(String subject) {
+        return Optional.ofNullable(cache.getIfPresent(subject)).map(Entry::entitlements);
+    }
+
+    /**
+     * Checks whether the subject is granted access to the dataset, according to the cached entitlements.
+     *
+     * @param subject Subject ("sub" claim).
+     * @param dataset Dataset identifier.
+     * @return <code>true</code> if entitlements of the subject are cached and include unexpired grant for the dataset.
+     */
+    public boolean isGranted(String subject, String dataset) {
+        var entry = cache.getIfPresent(subject);
+        return entry != null && entry.entitlements().isGranted(dataset);
+    }
+
+    /**
+     * Removes entitlements of the subject, e.g. after revocation.
+     *
+     * @param subject Subject ("sub" claim).
+     */
+    public void invalidate(String subject) {
+        cache.invalidate(subject);
+    }
+
+    private long ttlNanos(Entitlements entitlements) {
+        long remaining = TimeUnit.SECONDS.toNanos(entitlements.getEarliestExpiry())
+                - TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+        return Math.max(Math.min(remaining, maximumTtl.toNanos()), 0);
+    }
+
+    /**
+     * Cached entitlements along with the visas they were built from.
+     */
+    private record Entry(Entitlements entitlements, Visa[] visas) {
+
+        /**
+         * Checks whether the passport consists of the very same visa instances, in the same order.
+         */
+        boolean hasSameVisas(Collection<Visa> passport) {
+            if (passport.size() != visas.length) {
+                return false;
+            }
+            int i = 0;
+            for (Visa visa : passport) {
+                if (visa != visas[i++]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+    }
+
+    private class EntitlementsExpiry implements Expiry<String, Entry> {
+
+        @Override
+        public long expireAfterCreate(String subject, Entry entry, long currentTime) {
+            return ttlNanos(entry.entitlements());
+        }
+
+        @Override
+        public long expireAfterUpdate(String subject, Entry entry, long currentTime, long currentDuration) {
+            return ttlNanos(entry.entitlements());
+        }
+
+        @Override
+        public long expireAfterRead(String subject, Entry entry, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+
+    }
+
+}
@@ -0,0 +1,113 @@
+package no.uio.ifi.clearinghouse;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.ToString;
+import no.uio.ifi.clearinghouse.conditions.ConditionsEvaluator;
+import no.uio.ifi.clearinghouse.conditions.PassportIndex;
+import no.uio.ifi.clearinghouse.model.Visa;
+import no.uio.ifi.clearinghouse.model.VisaType;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Immutable set of datasets the subject is granted access to, built from "ControlledAccessGrants" visas
+ * of a validated passport whose conditions are met. Access checks are constant-time hash lookups.
+ * Grants with conditions expire no later than the visas meeting their conditions.
+ */
+@Getter
+@ToString
+public final class Entitlements {
+
+    private static final long NO_EXPIRY = Long.MAX_VALUE;
+
+    private final String subject;
+
+    @Getter(AccessLevel.NONE)
+    @ToString.Exclude
+    private final Map<String, Long> expirations;    // dataset -> latest "exp" of its grants, seconds since epoch
+
+    private final long earliestExpiry;              // earliest "exp" of the grants, seconds since epoch
+
+    @ToString.Exclude
+    private final String fingerprint;               // digest of the passport the entitlements were built from
+
+    private Entitlements(String subject, Map<String, Long> expirations, String fingerprint) {
+        this.subject = subject;
+        this.expirations = Map.copyOf(expirations);
+        this.earliestExpiry = expirations.values().stream().mapToLong(Long::longValue).min().orElse(NO_EXPIRY);
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Builds entitlements of the subject from the validated visas of the passport.
+     * Visas of other subjects, expired visas and visas with unmet conditions are ignored.
+     * Conditions are met by unexpired visas only.
+     *
+     * @param subject Subject ("sub" claim).
+     * @param visas   Validated visas of the passport.
+     * @return <code>Entitlements</code> instance.
+     */
+    public static Entitlements of(String subject, Collection<Visa> visas) {
+        return of(subject, visas, fingerprint(visas));
+    }
+
+    static Entitlements of(String subject, Collection<Visa> visas, String fingerprint) {
+        long now = System.currentTimeMillis() / 1000;
+        var index = PassportIndex.of(visas, now);
+        Map<String, Long> expirations = new HashMap<>();
+        for (Visa visa : visas) {
+            if (visa.visaType() != VisaType.ControlledAccessGrants || visa.getValue() == null
+                    || visa.getSub() != null && !visa.getSub().equals(subject)) {
+                continue;
+            }
+            long exp = Math.min(visa.getExp() == null ? NO_EXPIRY : visa.getExp(), ConditionsEvaluator.satisfiedUntil(visa, index));
+            if (exp > now) {
+                expirations.merge(visa.getValue(), exp, Math::max);
+            }
+        }
+        return new Entitlements(subject, expirations, fingerprint);
+    }
+
+    /**
+     * Checks whether the subject is granted access to the dataset at the moment.
+     *
+     * @param dataset Dataset identifier ("value" of "ControlledAccessGrants" visa).
+     * @return <code>true</code> if there's a grant for the dataset which has not expired yet.
+     */
+    public boolean isGranted(String dataset) {
+        var exp = expirations.get(dataset);
+        return exp != null && exp > System.currentTimeMillis() / 1000;
+    }
+
+    /**
+     * Returns identifiers of the datasets granted, including the ones whose grants have expired since.
+     *
+     * @return Immutable set of dataset identifiers.
+     */
+    public Set<String> getDatasets() {
+        return expirations.keySet();
+    }
+
+    /**
+     * Computes order-independent fingerprint of the passport, used to detect whether the passport has changed.
+     *
+     * @param visas Validated visas of the passport.
+     * @return Passport fingerprint.
+     */
+    static String fingerprint(Collection<Visa> visas) {
+        return Digests.sha256(visas
+                .stream()
+                .map(visa -> String.join("\u0000", visa.getSub(), visa.getType(), visa.getValue(), visa.getSource(),
+                        visa.getBy(), Objects.toString(visa.getAsserted()), Objects.toString(visa.getExp()),
+                        Objects.toString(visa.conditions())))
+                .sorted()
+                .collect(Collectors.joining("\u0001")));
+    }
+
+}
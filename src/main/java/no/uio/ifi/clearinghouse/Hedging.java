@@ -0,0 +1,321 @@
+package no.uio.ifi.clearinghouse;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Dispatcher;
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * OkHttp interceptor hedging slow GET requests: if no response arrives within the configured percentile
+ * of recent response times of the endpoint (URL without query), a duplicate request is sent
+ * and the first response wins, cancelling the other call. Endpoints are hedged once enough response times are recorded.
+ * <p>
+ * Primary and hedge requests of hedged endpoints are separate calls: the primary is executed on the calling thread,
+ * the hedge is enqueued on a dispatcher of its own, so it never queues behind the calls waiting for it,
+ * and is skipped when that dispatcher is at its limits. Cancelling the intercepted call cancels both.
+ */
+class Hedging implements Interceptor {
+
+    static final int WINDOW_SIZE = 128;
+
+    static final int MINIMUM_SAMPLES = 20;
+
+    static final int MAXIMUM_ENDPOINTS = 1_000;
+
+    static final Duration ENDPOINT_EXPIRATION = Duration.ofHours(1);
+
+    private static final long CANCELLATION_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final OkHttpClient client;
+
+    private final OkHttpClient hedgeClient;
+
+    private final double percentile;
+
+    private final Cache<String, LatencyWindow> latencies = Caffeine.newBuilder()
+            .maximumSize(MAXIMUM_ENDPOINTS)
+            .expireAfterAccess(ENDPOINT_EXPIRATION)
+            .build();
+
+    /**
+     * Creates the interceptor.
+     *
+     * @param client     HTTP client to send primary and hedge requests of hedged endpoints with, not hedged itself.
+     *                   Hedge requests get a dispatcher of their own with the same limits.
+     * @param percentile Percentile of recent response times to wait for before hedging, e.g. 0.95.
+     */
+    Hedging(OkHttpClient client, double percentile) {
+        if (percentile <= 0 || percentile >= 1) {
+            throw new IllegalArgumentException("Hedging percentile must be between 0 and 1");
+        }
+        var dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(client.dispatcher().getMaxRequests());
+        dispatcher.setMaxRequestsPerHost(client.dispatcher().getMaxRequestsPerHost());
+        this.client = client;
+        this.hedgeClient = client.newBuilder().dispatcher(dispatcher).build();
+        this.percentile = percentile;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        var request = chain.request();
+        if (!"GET".equals(request.method())) {
+            return chain.proceed(request);
+        }
+        var window = latencies.get(endpoint(request.url()), k -> new LatencyWindow());
+        long delay = window.percentile(percentile);
+        long start = System.nanoTime();
+        if (delay < 0) {
+            var response = chain.proceed(request);
+            window.record(System.nanoTime() - start);
+            return response;
+        }
+        var race = new Race(client.newCall(request));
+        var scheduled = SchedulerHolder.SCHEDULER.schedule(() -> hedge(race, request), delay, TimeUnit.NANOSECONDS);
+        var watcher = SchedulerHolder.SCHEDULER.scheduleWithFixedDelay(() -> {
+            if (chain.call().isCanceled()) {
+                race.abandon();
+            }
+        }, CANCELLATION_POLL_NANOS, CANCELLATION_POLL_NANOS, TimeUnit.NANOSECONDS);
+        try {
+            try {
+                race.succeeded(race.primary.execute(), false);
+            } catch (IOException e) {
+                race.failed(e);
+            } catch (RuntimeException e) {
+                race.abandon();
+                throw e;
+            }
+            var response = await(chain, race);
+            window.record(System.nanoTime() - start);
+            return response;
+        } finally {
+            scheduled.cancel(false);
+            watcher.cancel(false);
+        }
+    }
+
+    /**
+     * Sends the hedge request, unless the race is over or the hedge dispatcher is at its limits.
+     * The dispatcher runs hedges only, so its running calls are all asynchronous ones, subject to the limits.
+     */
+    private void hedge(Race race, Request request) {
+        var dispatcher = hedgeClient.dispatcher();
+        var host = request.url().host();
+        var running = dispatcher.runningCalls();
+        if (dispatcher.queuedCallsCount() > 0 || running.size() >= dispatcher.getMaxRequests()
+                || running.stream().filter(call -> host.equals(call.request().url().host())).count() >= dispatcher.getMaxRequestsPerHost()) {
+            return;
+        }
+        var call = hedgeClient.newCall(request);
+        if (!race.hedging(call)) {
+            return;
+        }
+        call.enqueue(new Callback() {
+            @Override
+            public void onResponse(Call call, Response response) {
+                race.succeeded(response, true);
+            }
+
+            @Override
+            public void onFailure(Call call, IOException e) {
+                race.failed(e);
+            }
+        });
+    }
+
+    /**
+     * Waits for the hedge, if the primary failed while the hedge is in flight, within the remaining time of the call.
+     * Returns right away once the race is decided.
+     */
+    private static Response await(Chain chain, Race race) throws IOException {
+        long deadline = System.nanoTime() + maximumWaitNanos(chain);
+        while (true) {
+            if (chain.call().isCanceled()) {
+                race.discard();
+                throw new IOException("Canceled");
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                race.discard();
+                throw new InterruptedIOException("Timed out waiting for response");
+            }
+            try {
+                return race.result.get(Math.min(remaining, CANCELLATION_POLL_NANOS), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                // check for cancellation and deadline again
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                race.discard();
+                throw new InterruptedIOException("Interrupted while waiting for response");
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException ioException ? ioException : new IOException(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Returns the call timeout if set, or the sum of connect, write and read timeouts otherwise,
+     * as the response headers are due within them.
+     */
+    private static long maximumWaitNanos(Chain chain) {
+        long callTimeout = chain.call().timeout().timeoutNanos();
+        if (callTimeout > 0) {
+            return callTimeout;
+        }
+        if (chain.connectTimeoutMillis() == 0 || chain.writeTimeoutMillis() == 0 || chain.readTimeoutMillis() == 0) {
+            return Long.MAX_VALUE / 2;
+        }
+        return TimeUnit.MILLISECONDS.toNanos((long) chain.connectTimeoutMillis() + chain.writeTimeoutMillis() + chain.readTimeoutMillis());
+    }
+
+    private static String endpoint(HttpUrl url) {
+        return url.newBuilder().query(null).fragment(null).build().toString();
+    }
+
+    /**
+     * Race of the primary and the hedge calls: the first response wins, the other call is cancelled.
+     * Fails once every started call failed.
+     */
+    private static final class Race {
+
+        private final Call primary;
+
+        private final CompletableFuture<Response> result = new CompletableFuture<>();
+
+        private boolean done;
+
+        private int pending = 1;
+
+        private Call hedge;
+
+        private IOException failure;
+
+        private Race(Call primary) {
+            this.primary = primary;
+        }
+
+        /**
+         * Registers the hedge call before it is sent.
+         *
+         * @return <code>false</code> if the race is already over and the hedge should not be sent.
+         */
+        private synchronized boolean hedging(Call call) {
+            if (done) {
+                return false;
+            }
+            hedge = call;
+            pending++;
+            return true;
+        }
+
+        private synchronized void succeeded(Response response, boolean fromHedge) {
+            if (done) {
+                response.close();
+                return;
+            }
+            done = true;
+            if (fromHedge) {
+                primary.cancel();
+            } else if (hedge != null) {
+                hedge.cancel();
+            }
+            result.complete(response);
+        }
+
+        private synchronized void failed(IOException e) {
+            if (failure == null) {
+                failure = e;
+            } else {
+                failure.addSuppressed(e);
+            }
+            if (--pending == 0 && !done) {
+                done = true;
+                result.completeExceptionally(failure);
+            }
+        }
+
+        /**
+         * Ends the race without a winner, cancelling both calls.
+         */
+        private synchronized void abandon() {
+            done = true;
+            primary.cancel();
+            if (hedge != null) {
+                hedge.cancel();
+            }
+        }
+
+        /**
+         * Abandons the race on behalf of the waiting caller, closing the winning response it won't return.
+         */
+        private synchronized void discard() {
+            abandon();
+            if (result.isDone() && !result.isCompletedExceptionally()) {
+                result.join().close();
+            }
+        }
+
+    }
+
+    /**
+     * Ring buffer of recent response times of the endpoint.
+     */
+    private static final class LatencyWindow {
+
+        private final long[] samples = new long[WINDOW_SIZE];
+
+        private int count;
+
+        private int next;
+
+        private synchronized void record(long nanos) {
+            samples[next] = nanos;
+            next = (next + 1) % samples.length;
+            count = Math.min(count + 1, samples.length);
+        }
+
+        /**
+         * Returns the percentile of recorded response times.
+         *
+         * @return Response time in nanoseconds or <code>-1</code> if not enough response times are recorded.
+         */
+        private synchronized long percentile(double percentile) {
+            if (count < MINIMUM_SAMPLES) {
+                return -1;
+            }
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            return sorted[Math.min(count - 1, (int) Math.ceil(percentile * count) - 1)];
+        }
+
+    }
+
+    private static final class SchedulerHolder {
+
+        private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "clearinghouse-hedging");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+    }
+
+}
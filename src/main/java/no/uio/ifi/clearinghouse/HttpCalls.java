@@ -0,0 +1,68 @@
+package no.uio.ifi.clearinghouse;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Utility class bridging OkHttp asynchronous calls to <code>CompletableFuture</code>.
+ */
+final class HttpCalls {
+
+    private HttpCalls() {
+    }
+
+    /**
+     * Handler of the HTTP response, invoked on the OkHttp dispatcher thread. The response is closed afterwards.
+     *
+     * @param <T> Type of the result.
+     */
+    @FunctionalInterface
+    interface ResponseHandler<T> {
+
+        T handle(Response response) throws IOException;
+
+    }
+
+    /**
+     * Enqueues the request and returns future completed with the handled response.
+     * Cancelling the future cancels the call.
+     *
+     * @param client  HTTP client.
+     * @param request Request to execute.
+     * @param handler Response handler.
+     * @param <T>     Type of the result.
+     * @return Future result.
+     */
+    static <T> CompletableFuture<T> enqueue(OkHttpClient client, Request request, ResponseHandler<T> handler) {
+        var future = new CompletableFuture<T>();
+        Call call = client.newCall(request);
+        call.enqueue(new Callback() {
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (response) {
+                    future.complete(handler.handle(response));
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void onFailure(Call call, IOException e) {
+                future.completeExceptionally(e);
+            }
+        });
+        future.whenComplete((result, throwable) -> {
+            if (future.isCancelled()) {
+                call.cancel();
+            }
+        });
+        return future;
+    }
+
+}
@@ -0,0 +1,159 @@
+package no.uio.ifi.clearinghouse;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Configuration of the HTTP client shared by <code>Clearinghouse</code> and its <code>JWKProvider</code>
+ * for discovery, "/userinfo" and JWKs requests. Defaults match OkHttp defaults.
+ */
+@Getter
+@Builder
+@ToString
+public class HttpClientConfig {
+
+    /**
+     * Maximum number of idle connections kept in the pool.
+     */
+    @Builder.Default
+    private final int maxIdleConnections = 5;
+
+    /**
+     * Time to keep idle connections alive for.
+     */
+    @Builder.Default
+    private final Duration keepAlive = Duration.ofMinutes(5);
+
+    /**
+     * Connect timeout.
+     */
+    @Builder.Default
+    private final Duration connectTimeout = Duration.ofSeconds(10);
+
+    /**
+     * Read timeout, applied to each read from the socket.
+     */
+    @Builder.Default
+    private final Duration readTimeout = Duration.ofSeconds(10);
+
+    /**
+     * Timeout of the whole call, including connecting, writing the request and reading the response.
+     * Zero means no timeout.
+     */
+    @Builder.Default
+    private final Duration callTimeout = Duration.ZERO;
+
+    /**
+     * Maximum number of concurrent asynchronous requests.
+     */
+    @Builder.Default
+    private final int maxRequests = 64;
+
+    /**
+     * Maximum number of concurrent asynchronous requests per host.
+     */
+    @Builder.Default
+    private final int maxRequestsPerHost = 5;
+
+    /**
+     * Whether to negotiate HTTP/2 with servers supporting it.
+     */
+    @Builder.Default
+    private final boolean preferHttp2 = true;
+
+    /**
+     * Percentile of recent response times of the endpoint after which a slow GET request is duplicated,
+     * taking the first response, e.g. 0.95. Zero disables hedging.
+     */
+    @Builder.Default
+    private final double hedgingPercentile = 0;
+
+    /**
+     * Number of consecutive failures of the endpoint after which its requests fail fast. Zero disables circuit breaking.
+     */
+    @Builder.Default
+    private final int circuitBreakerThreshold = 0;
+
+    /**
+     * Time requests to the failing endpoint fail fast for, before the next request is let through as a trial.
+     */
+    @Builder.Default
+    private final Duration circuitBreakerOpenDuration = Duration.ofSeconds(30);
+
+    private static final class DefaultClientHolder {
+
+        private static final OkHttpClient CLIENT = HttpClientConfig.builder().build().createClient();
+
+    }
+
+    /**
+     * Returns HTTP client with default configuration, shared by default <code>Clearinghouse</code>
+     * and <code>JWKProvider</code> instances.
+     *
+     * @return Shared default <code>OkHttpClient</code>.
+     */
+    static OkHttpClient defaultClient() {
+        return DefaultClientHolder.CLIENT;
+    }
+
+    /**
+     * Creates new HTTP client with its own connection pool and dispatcher according to this configuration.
+     *
+     * @return <code>OkHttpClient</code> instance.
+     */
+    public OkHttpClient createClient() {
+        return createClient(List.of());
+    }
+
+    /**
+     * Creates new HTTP client according to this configuration, with additional interceptors.
+     * The interceptors run after hedging and before circuit breaking, i.e. once per request sent, hedges included.
+     *
+     * @param interceptors Additional application interceptors.
+     * @return <code>OkHttpClient</code> instance.
+     */
+    OkHttpClient createClient(List<Interceptor> interceptors) {
+        var client = createBaseClient();
+        if (interceptors.isEmpty() && circuitBreakerThreshold <= 0 && hedgingPercentile <= 0) {
+            return client;
+        }
+        var builder = client.newBuilder();
+        interceptors.forEach(builder::addInterceptor);
+        if (circuitBreakerThreshold > 0) {
+            builder.addInterceptor(new CircuitBreaker(circuitBreakerThreshold, circuitBreakerOpenDuration));
+        }
+        if (hedgingPercentile <= 0) {
+            return builder.build();
+        }
+        var guarded = builder.build();
+        builder = guarded.newBuilder();
+        builder.interceptors().add(0, new Hedging(guarded, hedgingPercentile)); // hedges go through the other interceptors
+        return builder.build();
+    }
+
+    private OkHttpClient createBaseClient() {
+        var dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(maxRequests);
+        dispatcher.setMaxRequestsPerHost(maxRequestsPerHost);
+        return new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(maxIdleConnections, keepAlive.toMillis(), TimeUnit.MILLISECONDS))
+                .dispatcher(dispatcher)
+                .connectTimeout(connectTimeout)
+                .readTimeout(readTimeout)
+                .writeTimeout(readTimeout)
+                .callTimeout(callTimeout)
+                .protocols(preferHttp2 ? List.of(Protocol.HTTP_2, Protocol.HTTP_1_1) : List.of(Protocol.HTTP_1_1))
+                .build();
+    }
+
+}
@@ -0,0 +1,398 @@
+package no.uio.ifi.clearinghouse;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import lombok.extern.slf4j.Slf4j;
+import no.uio.ifi.clearinghouse.instrumentation.Instrumentation;
+import no.uio.ifi.clearinghouse.instrumentation.Stage;
+import okhttp3.CacheControl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Cache of parsed HTTP documents (such as OpenID discovery documents or JWK sets), honouring HTTP caching semantics.
+ * Freshness is taken from "Cache-Control" or "Expires" response headers, falling back to the default TTL.
+ * Stale documents are revalidated with conditional requests ("If-None-Match" / "If-Modified-Since")
+ * and are served while revalidation runs in the background, unless the server demands revalidation.
+ * After a failed background revalidation, the document is not revalidated in the background again for a while,
+ * so that an unavailable server does not receive a request per read.
+ * Reads take no locks; concurrent fetches of the same URL share one in-flight request.
+ * If the circuit of the URL is open (see <code>CircuitBreaker</code>), the cached document is served regardless of its age.
+ *
+ * @param <T> Type of the parsed document.
+ */
+@Slf4j
+class HttpDocumentCache<T> {
+
+    static final Duration DEFAULT_TTL = Duration.ofMinutes(5);
+    static final Duration DEFAULT_MAXIMUM_STALENESS = Duration.ofDays(1);
+    static final double REFRESH_AHEAD_FACTOR = 0.8;
+    static final Duration REVALIDATION_FAILURE_BACKOFF = Duration.ofSeconds(30);
+
+    private static final long DEFAULT_MAXIMUM_SIZE = 100;
+
+    private static final String ETAG = "ETag";
+    private static final String LAST_MODIFIED = "Last-Modified";
+    private static final String IF_NONE_MATCH = "If-None-Match";
+    private static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+    private static final String EXPIRES = "Expires";
+    private static final String DATE = "Date";
+    private static final String AGE = "Age";
+
+    private final OkHttpClient client;
+    private final Stage stage;
+    private final Function<String, T> parser;
+    private final long defaultTtl;
+    private final long maximumStaleness;
+
+    private final Cache<String, Document<T>> cache;
+
+    private final SingleFlight<String, Document<T>> fetches = new SingleFlight<>();
+
+    private final Instrumentation instrumentation;
+
+    HttpDocumentCache(OkHttpClient client, Stage stage, Instrumentation instrumentation, Function<String, T> parser) {
+        this(client, stage, instrumentation, parser, DEFAULT_TTL, DEFAULT_MAXIMUM_STALENESS);
+    }
+
+    HttpDocumentCache(OkHttpClient client, Stage stage, Instrumentation instrumentation, Function<String, T> parser,
+                      Duration defaultTtl, Duration maximumStaleness) {
+        this.client = client;
+        this.stage = stage;
+        this.instrumentation = instrumentation;
+        this.parser = parser;
+        this.defaultTtl = defaultTtl.toMillis();
+        this.maximumStaleness = maximumStaleness.toMillis();
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(DEFAULT_MAXIMUM_SIZE)
+                .removalListener((String url, Document<T> document, RemovalCause cause) -> {
+                    if (cause.wasEvicted() && stage == Stage.JWKS_FETCH) {
+                        instrumentation.keyCacheEviction(url);
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * Returns parsed document from the specified URL.
+     * Fresh documents are served from the cache, stale ones are served from the cache and revalidated in the background,
+     * missing ones (or ones that must be revalidated) are fetched synchronously.
+     * Documents approaching their expiration are revalidated in the background ahead of time.
+     *
+     * @param url Document URL.
+     * @return Parsed document.
+     */
+    T get(String url) {
+        var value = getCached(url);
+        return value != null ? value : fetch(url, cache.getIfPresent(url)).value();
+    }
+
+    /**
+     * Asynchronous counterpart of {@link #get(String)}: missing documents are fetched without blocking the caller.
+     *
+     * @param url Document URL.
+     * @return Future parsed document.
+     */
+    CompletableFuture<T> getAsync(String url) {
+        var value = getCached(url);
+        return value != null
+                ? CompletableFuture.completedFuture(value)
+                : fetchAsync(url, cache.getIfPresent(url)).thenApply(Document::value);
+    }
+
+    /**
+     * Returns parsed document from the specified URL if it can be served without a synchronous fetch,
+     * revalidating it in the background when needed.
+     *
+     * @param url Document URL.
+     * @return Parsed document or <code>null</code> if it has to be fetched.
+     */
+    T getCached(String url) {
+        var document = cache.getIfPresent(url);
+        if (document == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        if (document.isFresh(now)) {
+            if (now >= document.refreshAt()) {
+                refreshInBackground(url, document);
+            }
+            return document.value();
+        }
+        if (!document.mustRevalidate() && now - document.expiresAt() < maximumStaleness) {
+            refreshInBackground(url, document);
+            return document.value();
+        }
+        return null;
+    }
+
+    /**
+     * Revalidates document from the specified URL synchronously, regardless of its freshness.
+     *
+     * @param url Document URL.
+     * @return Parsed document.
+     */
+    T refresh(String url) {
+        return fetch(url, cache.getIfPresent(url)).value();
+    }
+
+    /**
+     * Revalidates document from the specified URL asynchronously, regardless of its freshness.
+     *
+     * @param url Document URL.
+     * @return Future parsed document.
+     */
+    CompletableFuture<T> refreshAsync(String url) {
+        return fetchAsync(url, cache.getIfPresent(url)).thenApply(Document::value);
+    }
+
+    /**
+     * Returns cached documents in serializable form, e.g. to be saved to disk.
+     * Documents that the server demands to revalidate before use are not included.
+     *
+     * @return Cached documents.
+     */
+    List<Entry> entries() {
+        List<Entry> entries = new ArrayList<>();
+        cache.asMap().forEach((url, document) -> {
+            if (!document.mustRevalidate()) {
+                entries.add(new Entry(url, document.body(), document.etag(), document.lastModified(), document.fetchedAt()));
+            }
+        });
+        return entries;
+    }
+
+    /**
+     * Populates the cache with previously saved documents. Restored documents are treated as stale:
+     * they are served right away and revalidated in the background on first use.
+     * Documents older than the maximum staleness, unparseable ones and ones already cached are skipped.
+     *
+     * @param entries Saved documents.
+     * @return Number of documents restored.
+     */
+    int restore(Collection<Entry> entries) {
+        long now = System.currentTimeMillis();
+        int restored = 0;
+        for (Entry entry : entries) {
+            if (entry.url() == null || entry.body() == null || now - entry.fetchedAt() >= maximumStaleness) {
+                continue;
+            }
+            long stale = Math.min(entry.fetchedAt(), now);
+            try {
+                var document = new Document<>(parser.apply(entry.body()), entry.body(), entry.etag(),
+                        entry.lastModified(), entry.fetchedAt(), stale, stale, false, 0);
+                if (cache.asMap().putIfAbsent(entry.url(), document) == null) {
+                    restored++;
+                }
+            } catch (RuntimeException e) {
+                log.warn("Skipping saved document from {}: {}", entry.url(), e.getMessage());
+            }
+        }
+        return restored;
+    }
+
+    private Document<T> fetch(String url, Document<T> previous) {
+        return fetches.execute(url, () -> {
+            var current = currentOrPrevious(url, previous);
+            if (current != previous) {
+                return current;
+            }
+            var timer = instrumentation.start(stage, url);
+            boolean success = false;
+            try (Response response = client.newCall(buildRequest(url, current)).execute()) {
+                var document = process(url, current, response);
+                success = true;
+                return document;
+            } catch (CircuitBreaker.CircuitOpenException e) {
+                if (current != null) {
+                    log.warn("Serving cached document: {}", e.getMessage());
+                    return current;
+                }
+                throw new RuntimeException(e);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } finally {
+                timer.stop(success);
+            }
+        });
+    }
+
+    private CompletableFuture<Document<T>> fetchAsync(String url, Document<T> previous) {
+        return fetches.executeAsync(url, () -> {
+            var current = currentOrPrevious(url, previous);
+            if (current != previous) {
+                return CompletableFuture.completedFuture(current);
+            }
+            var timer = instrumentation.start(stage, url);
+            return HttpCalls.enqueue(client, buildRequest(url, current), response -> process(url, current, response))
+                    .whenComplete((document, throwable) -> timer.stop(throwable == null))
+                    .exceptionally(e -> {
+                        var cause = e instanceof CompletionException ? e.getCause() : e;
+                        if (cause instanceof CircuitBreaker.CircuitOpenException && current != null) {
+                            log.warn("Serving cached document: {}", cause.getMessage());
+                            return current;
+                        }
+                        throw e instanceof CompletionException completionException ? completionException : new CompletionException(e);
+                    });
+        });
+    }
+
+    /**
+     * Returns the cached document if it was replaced by a concurrent call which completed before this one started
+     * and is still fresh; otherwise returns the previous document, meaning that it has to be fetched.
+     */
+    private Document<T> currentOrPrevious(String url, Document<T> previous) {
+        var current = cache.getIfPresent(url);
+        if (current != null && current != previous && current.isFresh(System.currentTimeMillis())) {
+            return current;
+        }
+        return previous;
+    }
+
+    private void refreshInBackground(String url, Document<T> previous) {
+        if (System.currentTimeMillis() - previous.failedAt() < REVALIDATION_FAILURE_BACKOFF.toMillis()) {
+            return;
+        }
+        fetchAsync(url, previous).exceptionally(e -> {
+            log.warn("Failed to revalidate {}: {}", url, e.getMessage());
+            cache.asMap().replace(url, previous, previous.failed(System.currentTimeMillis()));
+            return null;
+        });
+    }
+
+    private Request buildRequest(String url, Document<T> previous) {
+        var builder = new Request.Builder().url(url).get();
+        if (previous != null) {
+            if (previous.etag() != null) {
+                builder.header(IF_NONE_MATCH, previous.etag());
+            }
+            if (previous.lastModified() != null) {
+                builder.header(IF_MODIFIED_SINCE, previous.lastModified());
+            }
+        }
+        return builder.build();
+    }
+
+    private Document<T> process(String url, Document<T> previous, Response response) throws IOException {
+        long now = System.currentTimeMillis();
+        CacheControl cacheControl = response.cacheControl();
+        Document<T> document;
+        if (response.code() == 304 && previous != null) {
+            document = Document.of(previous.value(),
+                    previous.body(),
+                    headerOrDefault(response, ETAG, previous.etag()),
+                    headerOrDefault(response, LAST_MODIFIED, previous.lastModified()),
+                    now,
+                    ttl(response, cacheControl),
+                    cacheControl.noCache() || cacheControl.mustRevalidate());
+        } else if (response.isSuccessful()) {
+            ResponseBody body = response.body();
+            if (body == null) {
+                throw new IOException("Empty response from " + url);
+            }
+            var content = body.string();
+            document = Document.of(parser.apply(content),
+                    content,
+                    response.header(ETAG),
+                    response.header(LAST_MODIFIED),
+                    now,
+                    ttl(response, cacheControl),
+                    cacheControl.noCache() || cacheControl.mustRevalidate());
+        } else {
+            throw new IOException("Unexpected response code " + response.code() + " from " + url);
+        }
+        if (cacheControl.noStore()) {
+            cache.invalidate(url);
+        } else {
+            cache.put(url, document);
+        }
+        return document;
+    }
+
+    private long ttl(Response response, CacheControl cacheControl) {
+        if (cacheControl.noCache()) {
+            return 0;
+        }
+        long age = TimeUnit.SECONDS.toMillis(Math.max(parseLong(response.header(AGE)), 0));
+        if (cacheControl.maxAgeSeconds() >= 0) {
+            return Math.max(TimeUnit.SECONDS.toMillis(cacheControl.maxAgeSeconds()) - age, 0);
+        }
+        Date expires = response.headers().getDate(EXPIRES);
+        if (expires != null) {
+            Date date = response.headers().getDate(DATE);
+            long served = date == null ? response.receivedResponseAtMillis() : date.getTime();
+            return Math.max(expires.getTime() - served - age, 0);
+        }
+        if (response.header(EXPIRES) != null) {
+            return 0; // invalid "Expires" values mean "already expired"
+        }
+        return defaultTtl;
+    }
+
+    private static String headerOrDefault(Response response, String name, String defaultValue) {
+        var value = response.header(name);
+        return value == null ? defaultValue : value;
+    }
+
+    private static long parseLong(String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Serializable form of the cached document: raw body and validators, without the parsed value.
+     *
+     * @param url          Document URL.
+     * @param body         Raw document body.
+     * @param etag         "ETag" response header, if any.
+     * @param lastModified "Last-Modified" response header, if any.
+     * @param fetchedAt    Time of the last successful fetch or revalidation, milliseconds since epoch.
+     */
+    record Entry(String url, String body, String etag, String lastModified, long fetchedAt) {
+    }
+
+    /**
+     * Cached document.
+     *
+     * @param failedAt Time of the last failed background revalidation, milliseconds since epoch, or <code>0</code>.
+     */
+    private record Document<T>(T value, String body, String etag, String lastModified, long fetchedAt,
+                               long expiresAt, long refreshAt, boolean mustRevalidate, long failedAt) {
+
+        static <T> Document<T> of(T value, String body, String etag, String lastModified, long fetchedAt, long ttl,
+                                  boolean mustRevalidate) {
+            return new Document<>(value, body, etag, lastModified, fetchedAt, fetchedAt + ttl,
+                    fetchedAt + (long) (ttl * REFRESH_AHEAD_FACTOR), mustRevalidate, 0);
+        }
+
+        Document<T> failed(long now) {
+            return new Document<>(value, body, etag, lastModified, fetchedAt, expiresAt, refreshAt, mustRevalidate, now);
+        }
+
+        boolean isFresh(long now) {
+            return now < expiresAt;
+        }
+
+    }
+
+}
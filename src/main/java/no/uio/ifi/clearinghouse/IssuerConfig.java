@@ -0,0 +1,53 @@
+package no.uio.ifi.clearinghouse;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Singular;
+import lombok.ToString;
+
+import java.time.Duration;
+import java.util.Set;
+
+/**
+ * Configuration of a trusted issuer registered with {@link Clearinghouse.Builder#issuer(IssuerConfig)}.
+ * Each registered issuer gets its own HTTP client, OpenID configuration and JWKs caches and concurrency limit,
+ * so that a slow or failing issuer can't hold up or evict keys of other issuers. The issuer's OpenID configuration
+ * is expected at "{issuer}/.well-known/openid-configuration" and its "/userinfo" endpoint at "{issuer}userinfo".
+ */
+@Getter
+@Builder
+@ToString
+public class IssuerConfig {
+
+    /**
+     * Issuer identifier: "iss" claim of the tokens it issues.
+     */
+    @NonNull
+    private final String issuer;
+
+    /**
+     * JWK set URLs the issuer signs visas with. Visas with other "jku" are rejected without fetching anything.
+     */
+    @Singular("jku")
+    private final Set<String> jkus;
+
+    /**
+     * Configuration of the issuer's own HTTP client: timeouts and connection pool.
+     */
+    @Builder.Default
+    private final HttpClientConfig httpClientConfig = HttpClientConfig.builder().build();
+
+    /**
+     * Maximum number of concurrent requests to the issuer.
+     */
+    @Builder.Default
+    private final int maxConcurrentRequests = 8;
+
+    /**
+     * Maximum time to wait for a request slot once the concurrency limit is reached. Zero fails immediately.
+     */
+    @Builder.Default
+    private final Duration maxWait = Duration.ZERO;
+
+}
@@ -0,0 +1,217 @@
+package no.uio.ifi.clearinghouse;
+
+import no.uio.ifi.clearinghouse.instrumentation.Failure;
+import no.uio.ifi.clearinghouse.instrumentation.Instrumentation;
+import no.uio.ifi.clearinghouse.instrumentation.Stage;
+import okhttp3.OkHttpClient;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Registry of trusted issuers, each with its own HTTP client guarded by a <code>Bulkhead</code>,
+ * its own OpenID configuration cache, its own <code>JWKProvider</code> and its own failure counters.
+ * Discovery, "/userinfo" and JWKs requests to a registered issuer all go through its client.
+ */
+final class IssuerRegistry {
+
+    private final Map<String, Issuer> issuers;
+
+    private final Map<String, Issuer> issuersByJKU;
+
+    private final Map<String, Issuer> issuersByEndpoint;
+
+    /**
+     * Creates the registry.
+     *
+     * @param configs                   Configurations of the issuers.
+     * @param minimumKeyRefetchInterval Minimum JWK set refetch interval of the issuers' <code>JWKProvider</code>s.
+     * @param instrumentation           Instrumentation receiving JWK cache statistics and fetch timings.
+     * @param discoveryParser           Parser of OpenID configurations, returning their JWKs URLs.
+     */
+    IssuerRegistry(Collection<IssuerConfig> configs, Duration minimumKeyRefetchInterval, Instrumentation instrumentation,
+                   Function<String, String> discoveryParser) {
+        Map<String, Issuer> issuers = new HashMap<>();
+        Map<String, Issuer> issuersByJKU = new HashMap<>();
+        Map<String, Issuer> issuersByEndpoint = new HashMap<>();
+        for (IssuerConfig config : configs) {
+            if (config.getJkus().isEmpty()) {
+                throw new IllegalArgumentException("No JKUs registered for issuer " + config.getIssuer());
+            }
+            var issuer = new Issuer(config, minimumKeyRefetchInterval, instrumentation, discoveryParser);
+            if (issuers.putIfAbsent(config.getIssuer(), issuer) != null) {
+                throw new IllegalArgumentException("Issuer " + config.getIssuer() + " registered more than once");
+            }
+            for (String jku : config.getJkus()) {
+                if (issuersByJKU.putIfAbsent(jku, issuer) != null) {
+                    throw new IllegalArgumentException("JKU " + jku + " registered for more than one issuer");
+                }
+            }
+            var base = config.getIssuer().endsWith("/") ? config.getIssuer() : config.getIssuer() + "/";
+            issuersByEndpoint.put(base + Clearinghouse.OPENID_CONFIGURATION, issuer);
+            issuersByEndpoint.put(config.getIssuer() + Clearinghouse.USERINFO, issuer);
+            issuersByEndpoint.put(base + Clearinghouse.USERINFO, issuer);
+        }
+        this.issuers = Map.copyOf(issuers);
+        this.issuersByJKU = Map.copyOf(issuersByJKU);
+        this.issuersByEndpoint = Map.copyOf(issuersByEndpoint);
+    }
+
+    boolean isEmpty() {
+        return issuers.isEmpty();
+    }
+
+    /**
+     * Returns identifiers of the registered issuers.
+     *
+     * @return Issuer identifiers.
+     */
+    Set<String> getIssuers() {
+        return issuers.keySet();
+    }
+
+    /**
+     * Returns registered issuer.
+     *
+     * @param issuer Issuer identifier, may be <code>null</code>.
+     * @return <code>Issuer</code> or <code>null</code> if not registered.
+     */
+    Issuer get(String issuer) {
+        return issuer == null ? null : issuers.get(issuer);
+    }
+
+    /**
+     * Returns registered issuer owning the JWK set URL.
+     *
+     * @param jku JWK set URL.
+     * @return <code>Issuer</code> or <code>null</code> if the URL is not registered.
+     */
+    Issuer getByJKU(String jku) {
+        return issuersByJKU.get(jku);
+    }
+
+    /**
+     * Returns registered issuer serving the OpenID configuration or "/userinfo" endpoint.
+     *
+     * @param url OpenID configuration or "/userinfo" URL.
+     * @return <code>Issuer</code> or <code>null</code> if the URL doesn't belong to a registered issuer.
+     */
+    Issuer getByEndpoint(String url) {
+        return issuersByEndpoint.get(url);
+    }
+
+    Collection<Issuer> getAll() {
+        return issuers.values();
+    }
+
+    /**
+     * Wraps instrumentation so that validation failures of registered issuers are also counted per issuer.
+     *
+     * @param delegate Instrumentation to pass all events to.
+     * @return Instrumentation counting failures.
+     */
+    Instrumentation accounting(Instrumentation delegate) {
+        return new Instrumentation() {
+
+            @Override
+            public Timer start(Stage stage, String target) {
+                return delegate.start(stage, target);
+            }
+
+            @Override
+            public void keyCacheHit(String jku) {
+                delegate.keyCacheHit(jku);
+            }
+
+            @Override
+            public void keyCacheMiss(String jku) {
+                delegate.keyCacheMiss(jku);
+            }
+
+            @Override
+            public void keyCacheEviction(String jku) {
+                delegate.keyCacheEviction(jku);
+            }
+
+            @Override
+            public void validationFailure(String issuer, Failure failure) {
+                var registered = get(issuer);
+                if (registered != null) {
+                    registered.failures.get(failure).increment();
+                }
+                delegate.validationFailure(issuer, failure);
+            }
+
+        };
+    }
+
+    /**
+     * Registered issuer.
+     */
+    static final class Issuer {
+
+        private final IssuerConfig config;
+
+        private final Bulkhead bulkhead;
+
+        private final OkHttpClient client;
+
+        private final HttpDocumentCache<String> discovery;
+
+        private final JWKProvider jwkProvider;
+
+        private final Map<Failure, LongAdder> failures = new EnumMap<>(Failure.class);
+
+        private Issuer(IssuerConfig config, Duration minimumKeyRefetchInterval, Instrumentation instrumentation,
+                       Function<String, String> discoveryParser) {
+            this.config = config;
+            this.bulkhead = new Bulkhead(config.getMaxConcurrentRequests(), config.getMaxWait());
+            this.client = config.getHttpClientConfig().createClient(List.of(bulkhead));
+            this.discovery = new HttpDocumentCache<>(client, Stage.DISCOVERY_FETCH, instrumentation, discoveryParser);
+            this.jwkProvider = new JWKProvider(client, minimumKeyRefetchInterval, instrumentation);
+            for (Failure failure : Failure.values()) {
+                failures.put(failure, new LongAdder());
+            }
+        }
+
+        /**
+         * Checks whether the issuer signs visas with keys from the JWK set URL.
+         *
+         * @param jku JWK set URL.
+         * @return <code>true</code> if the URL is registered for the issuer.
+         */
+        boolean isTrustedJKU(String jku) {
+            return config.getJkus().contains(jku);
+        }
+
+        OkHttpClient getClient() {
+            return client;
+        }
+
+        /**
+         * Returns cache of the issuer's OpenID configurations, parsed into their JWKs URLs.
+         */
+        HttpDocumentCache<String> getDiscovery() {
+            return discovery;
+        }
+
+        JWKProvider getJwkProvider() {
+            return jwkProvider;
+        }
+
+        IssuerStats getStats() {
+            Map<Failure, Long> counts = new EnumMap<>(Failure.class);
+            failures.forEach((failure, count) -> counts.put(failure, count.sum()));
+            return new IssuerStats(config.getIssuer(), counts, bulkhead.getRejections(), bulkhead.getActiveRequests());
+        }
+
+    }
+
+}
@@ -0,0 +1,16 @@
+package no.uio.ifi.clearinghouse;
+
+import no.uio.ifi.clearinghouse.instrumentation.Failure;
+
+import java.util.Map;
+
+/**
+ * Failure accounting of a registered issuer.
+ *
+ * @param issuer           Issuer identifier.
+ * @param failures         Number of rejected tokens of the issuer, by reason.
+ * @param rejectedRequests Number of requests to the issuer rejected due to its concurrency limit.
+ * @param activeRequests   Number of requests to the issuer in progress.
+ */
+public record IssuerStats(String issuer, Map<Failure, Long> failures, long rejectedRequests, int activeRequests) {
+}
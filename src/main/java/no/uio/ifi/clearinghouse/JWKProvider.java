@@ -1,82 +1,203 @@
 package no.uio.ifi.clearinghouse;
 
 import com.auth0.jwk.Jwk;
-import com.auth0.jwk.JwkException;
 import com.auth0.jwk.SigningKeyNotFoundException;
+import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
-import com.github.benmanes.caffeine.cache.LoadingCache;
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import no.uio.ifi.clearinghouse.instrumentation.Instrumentation;
+import no.uio.ifi.clearinghouse.instrumentation.Stage;
 import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import okhttp3.ResponseBody;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 
-import java.io.IOException;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
 
 /**
- * Singleton class to be used for retrieving keys from JKU entry of JWT header.
+ * Class to be used for retrieving keys from JKU entry of JWT header.
+ * Instances are created by <code>Clearinghouse.Builder</code>; <code>INSTANCE</code> is the default one,
+ * used by default <code>Clearinghouse</code> instance.
  */
-public enum JWKProvider {
+public class JWKProvider {
 
-    INSTANCE;
+    static final Duration DEFAULT_MINIMUM_REFETCH_INTERVAL = Duration.ofSeconds(30);
 
-    private final OkHttpClient client = new OkHttpClient();
+    /**
+     * Default instance, sharing HTTP client with default <code>Clearinghouse</code> instance.
+     */
+    public static final JWKProvider INSTANCE = new JWKProvider(HttpClientConfig.defaultClient(),
+            DEFAULT_MINIMUM_REFETCH_INTERVAL, Instrumentation.NOOP);
 
     private static final String KEYS = "keys";
 
     private final Gson gson = new Gson();
 
-    private final LoadingCache<Pair<String, String>, Jwk> cache = Caffeine.newBuilder().maximumSize(100).build(this::getInternal);
+    private final HttpDocumentCache<Map<String, Jwk>> documents;
+
+    private final Cache<String, Boolean> recentRefetches;
+
+    private final Cache<Pair<String, String>, Boolean> unknownKeys;
+
+    private final Instrumentation instrumentation;
+
+    /**
+     * Creates the provider.
+     *
+     * @param client                 HTTP client to fetch JWK sets with.
+     * @param minimumRefetchInterval Minimum interval between refetches of the same JWK set caused by unknown key IDs.
+     *                               Unknown key IDs are negatively cached for the same interval.
+     * @param instrumentation        Instrumentation receiving JWK cache statistics and JWKS fetch timings.
+     */
+    JWKProvider(OkHttpClient client, Duration minimumRefetchInterval, Instrumentation instrumentation) {
+        this.documents = new HttpDocumentCache<>(client, Stage.JWKS_FETCH, instrumentation, this::parseJWKs);
+        this.recentRefetches = buildExpiringSet(minimumRefetchInterval);
+        this.unknownKeys = buildExpiringSet(minimumRefetchInterval);
+        this.instrumentation = instrumentation;
+    }
 
     /**
      * Returns <code>Jwk</code> instance containing RSA Public Key with specified ID, fetched from specified URL.
-     * The implementation uses cache.
+     * The implementation caches whole JWK sets indexed by key ID, so lookups of known keys require no network calls.
+     * Unknown key ID triggers at most one refetch of the JWK set per minimum refetch interval
+     * and is remembered as unknown for the same interval. The method takes no locks: cache hits are lock-free,
+     * concurrent misses for the same URL share one in-flight fetch and different URLs are loaded independently.
      *
      * @param url   JKU URL to fetch key from.
      * @param keyId Key ID.
      * @return <code>Jwk</code> instance.
      */
-    public synchronized Jwk get(String url, String keyId) {
-        return cache.get(new ImmutablePair<>(url, keyId));
+    public Jwk get(String url, String keyId) {
+        var cachedKeys = documents.getCached(url);
+        var jwk = cachedKeys == null ? null : cachedKeys.get(keyId);
+        if (jwk != null) {
+            instrumentation.keyCacheHit(url);
+            return jwk;
+        }
+        instrumentation.keyCacheMiss(url);
+        if (cachedKeys == null) {
+            jwk = getAll(url).get(keyId);
+            markFetched(url);
+            if (jwk != null) {
+                return jwk;
+            }
+        }
+        if (shouldRefetch(url, keyId)) {
+            jwk = documents.refresh(url).get(keyId);
+        }
+        return checkFound(url, keyId, jwk);
+    }
+
+    /**
+     * Asynchronous counterpart of {@link #get(String, String)}: JWK sets are fetched without blocking the caller.
+     *
+     * @param url   JKU URL to fetch key from.
+     * @param keyId Key ID.
+     * @return Future <code>Jwk</code> instance.
+     */
+    public CompletableFuture<Jwk> getAsync(String url, String keyId) {
+        var cachedKeys = documents.getCached(url);
+        var cachedJwk = cachedKeys == null ? null : cachedKeys.get(keyId);
+        if (cachedJwk != null) {
+            instrumentation.keyCacheHit(url);
+            return CompletableFuture.completedFuture(cachedJwk);
+        }
+        instrumentation.keyCacheMiss(url);
+        var keysFuture = cachedKeys == null
+                ? documents.getAsync(url).thenApply(keys -> {
+                    markFetched(url);
+                    return keys;
+                })
+                : CompletableFuture.completedFuture(cachedKeys);
+        return keysFuture.thenCompose(keys -> {
+            var jwk = keys.get(keyId);
+            if (jwk != null) {
+                return CompletableFuture.completedFuture(jwk);
+            }
+            if (shouldRefetch(url, keyId)) {
+                return documents.refreshAsync(url).thenApply(refreshed -> checkFound(url, keyId, refreshed.get(keyId)));
+            }
+            return CompletableFuture.completedFuture(checkFound(url, keyId, null));
+        });
     }
 
-    private Jwk getInternal(Pair<String, String> urlAndId) throws JwkException {
-        var url = urlAndId.getKey();
-        var keyId = urlAndId.getValue();
-        return getAll(url)
-                .stream()
-                .filter(k -> k.getId().equals(keyId))
-                .findAny()
-                .orElseThrow(() -> new SigningKeyNotFoundException("No key found in " + url + " with kid " + keyId, null));
+    /**
+     * Fetches and caches JWK set from the specified URL ahead of time.
+     *
+     * @param url JKU URL.
+     * @return Future completed once the JWK set is cached.
+     */
+    CompletableFuture<Void> prewarm(String url) {
+        return documents.getAsync(url).thenAccept(keys -> {
+        });
+    }
+
+    /**
+     * Returns cached JWK sets in serializable form.
+     *
+     * @return Cached JWK sets.
+     */
+    List<HttpDocumentCache.Entry> snapshot() {
+        return documents.entries();
+    }
+
+    /**
+     * Populates the cache with previously saved JWK sets, to be revalidated on first use.
+     *
+     * @param entries Saved JWK sets.
+     * @return Number of JWK sets restored.
+     */
+    int restore(Collection<HttpDocumentCache.Entry> entries) {
+        return documents.restore(entries);
+    }
+
+    private boolean shouldRefetch(String url, String keyId) {
+        return unknownKeys.getIfPresent(new ImmutablePair<>(url, keyId)) == null
+                && recentRefetches.asMap().putIfAbsent(url, Boolean.TRUE) == null;
+    }
+
+    /**
+     * Counts the load of the JWK set towards the refetch limit, so that a key missing from a freshly loaded set
+     * does not trigger another fetch right away.
+     */
+    private void markFetched(String url) {
+        recentRefetches.put(url, Boolean.TRUE);
+    }
+
+    private Jwk checkFound(String url, String keyId, Jwk jwk) {
+        if (jwk != null) {
+            return jwk;
+        }
+        unknownKeys.asMap().putIfAbsent(new ImmutablePair<>(url, keyId), Boolean.TRUE);
+        throw new RuntimeException(new SigningKeyNotFoundException("No key found in " + url + " with kid " + keyId, null));
+    }
+
+    private Map<String, Jwk> getAll(String url) {
+        return documents.get(url);
     }
 
     @SuppressWarnings("unchecked")
-    private List<Jwk> getAll(String url) {
-        Request request = new Request.Builder()
-                .url(url)
-                .get()
-                .build();
-        JsonArray keysArray;
-        try {
-            ResponseBody body = client.newCall(request).execute().body();
-            assert body != null;
-            String bodyString = body.string();
-            keysArray = gson.fromJson(bodyString, JsonObject.class).getAsJsonArray(KEYS);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+    private Map<String, Jwk> parseJWKs(String jwks) {
+        JsonArray keysArray = gson.fromJson(jwks, JsonObject.class).getAsJsonArray(KEYS);
+        Map<String, Jwk> keys = new HashMap<>();
+        for (var key : keysArray) {
+            var jwk = Jwk.fromValues((Map<String, Object>) gson.fromJson(key, Map.class));
+            if (jwk.getId() != null) {
+                keys.putIfAbsent(jwk.getId(), jwk);
+            }
         }
-        return keysArray
-                .asList()
-                .stream()
-                .map(k -> gson.fromJson(k.toString(), Map.class))
-                .map(k -> Jwk.fromValues((Map<String, Object>) k))
-                .collect(Collectors.toList());
+        return Collections.unmodifiableMap(keys);
+    }
+
+    private static <K> Cache<K, Boolean> buildExpiringSet(Duration expiration) {
+        return Caffeine.newBuilder().expireAfterWrite(expiration).maximumSize(10_000).build();
     }
 
 }
@@ -0,0 +1,116 @@
+package no.uio.ifi.clearinghouse;
+
+import com.auth0.jwk.Jwk;
+import com.auth0.jwk.JwkException;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.jsonwebtoken.JwtParser;
+import io.jsonwebtoken.Jwts;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Base64;
+
+/**
+ * Registry of key material: turns RSA keys (from JWKs, PEM strings or <code>RSAPublicKey</code> instances)
+ * into reusable thread-safe JWT parsers exactly once per key fingerprint.
+ * Key instances are additionally cached by identity, so repeat lookups with the same instance skip fingerprinting.
+ */
+class KeyRegistry {
+
+    private static final String RSA = "RSA";
+    private static final String PEM_BOUNDARY = "-----";
+
+    private static final long MAXIMUM_SIZE = 1000;
+
+    private final Cache<String, JwtParser> parsersByFingerprint = Caffeine.newBuilder().maximumSize(MAXIMUM_SIZE).build();
+
+    private final Cache<RSAPublicKey, JwtParser> parsersByKey = Caffeine.newBuilder().weakKeys().maximumSize(MAXIMUM_SIZE).build();
+
+    private final Cache<Jwk, RSAPublicKey> keysByJwk = Caffeine.newBuilder().weakKeys().maximumSize(MAXIMUM_SIZE).build();
+
+    private final Cache<String, RSAPublicKey> keysByPEM = Caffeine.newBuilder().maximumSize(MAXIMUM_SIZE).build();
+
+    /**
+     * Returns JWT parser verifying signatures with the key provided.
+     *
+     * @param publicKey RSA public key.
+     * @return Thread-safe <code>JwtParser</code>.
+     */
+    JwtParser getParser(RSAPublicKey publicKey) {
+        return parsersByKey.get(publicKey, key -> parsersByFingerprint.get(fingerprint(key), f -> buildParser(key)));
+    }
+
+    /**
+     * Returns RSA public key of the JWK provided.
+     *
+     * @param jwk <code>Jwk</code> instance.
+     * @return RSA public key.
+     * @throws JwkException If JWK doesn't contain valid RSA public key.
+     */
+    RSAPublicKey getPublicKey(Jwk jwk) throws JwkException {
+        var publicKey = keysByJwk.getIfPresent(jwk);
+        if (publicKey == null) {
+            publicKey = (RSAPublicKey) jwk.getPublicKey();
+            keysByJwk.put(jwk, publicKey);
+        }
+        return publicKey;
+    }
+
+    /**
+     * Returns RSA public key read from PEM string.
+     *
+     * @param pemPublicKey PEM RSA public key.
+     * @return RSA public key.
+     * @throws GeneralSecurityException If PEM string doesn't contain valid RSA public key.
+     */
+    RSAPublicKey getPublicKey(String pemPublicKey) throws GeneralSecurityException {
+        var publicKey = keysByPEM.getIfPresent(pemPublicKey);
+        if (publicKey == null) {
+            publicKey = readPEMKey(pemPublicKey);
+            keysByPEM.put(pemPublicKey, publicKey);
+        }
+        return publicKey;
+    }
+
+    private static String fingerprint(RSAPublicKey publicKey) {
+        return Digests.sha256(publicKey.getEncoded());
+    }
+
+    private static JwtParser buildParser(RSAPublicKey publicKey) {
+        try {
+            var keyFactory = KeyFactory.getInstance(RSA);
+            var normalizedKey = keyFactory.generatePublic(new X509EncodedKeySpec(publicKey.getEncoded()));
+            return Jwts.parser().json(ClaimsDeserializer.INSTANCE).verifyWith(normalizedKey).build();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private static RSAPublicKey readPEMKey(String publicKey) throws GeneralSecurityException {
+        var body = new StringBuilder(publicKey.length());
+        boolean inBoundary = false;
+        for (int i = 0; i < publicKey.length(); i++) {
+            if (publicKey.startsWith(PEM_BOUNDARY, i)) {
+                inBoundary = !inBoundary;
+                i += PEM_BOUNDARY.length() - 1;
+                continue;
+            }
+            char c = publicKey.charAt(i);
+            if (!inBoundary && !Character.isWhitespace(c)) {
+                body.append(c);
+            }
+        }
+        byte[] decodedKey;
+        try {
+            decodedKey = Base64.getDecoder().decode(body.toString());
+        } catch (IllegalArgumentException e) {
+            throw new GeneralSecurityException(e);
+        }
+        var keyFactory = KeyFactory.getInstance(RSA);
+        return (RSAPublicKey) keyFactory.generatePublic(new X509EncodedKeySpec(decodedKey));
+    }
+
+}
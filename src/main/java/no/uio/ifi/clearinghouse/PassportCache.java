@@ -0,0 +1,148 @@
+package no.uio.ifi.clearinghouse;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded cache of passports (lists of visa JWT tokens) obtained from "/userinfo" endpoints,
+ * keyed by the endpoint and SHA-256 digest of the access token they were obtained with.
+ * Passports obtained with verified JWT access tokens and with opaque access tokens are kept apart:
+ * callers look up the former only after verifying the token.
+ * Passports obtained with JWT access tokens are evicted no later than the "exp" claim of the access token;
+ * passports obtained with opaque access tokens are kept for the configured opaque token TTL.
+ */
+public class PassportCache {
+
+    private final Duration maximumTtl;
+
+    private final Duration opaqueTokenTtl;
+
+    private final Cache<Key, Passport> cache;
+
+    /**
+     * Creates the cache.
+     *
+     * @param maximumSize    Maximum number of passports to keep.
+     * @param maximumTtl     Maximum time to keep a passport for, regardless of the access token expiration.
+     * @param opaqueTokenTtl Time to keep a passport obtained with an opaque access token for.
+     */
+    public PassportCache(long maximumSize, Duration maximumTtl, Duration opaqueTokenTtl) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("Maximum size must be positive");
+        }
+        if (maximumTtl.isNegative() || maximumTtl.isZero()) {
+            throw new IllegalArgumentException("Maximum TTL must be positive");
+        }
+        if (opaqueTokenTtl.isNegative()) {
+            throw new IllegalArgumentException("Opaque token TTL must not be negative");
+        }
+        this.maximumTtl = maximumTtl;
+        this.opaqueTokenTtl = opaqueTokenTtl.compareTo(maximumTtl) < 0 ? opaqueTokenTtl : maximumTtl;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfter(new PassportExpiry())
+                .build();
+    }
+
+    /**
+     * Returns cached passport for the verified JWT access token, if any.
+     *
+     * @param userInfoEndpoint "/userinfo" endpoint URL.
+     * @param accessToken      Access JWT token, verified by the caller.
+     * @return Optional list of visa JWT tokens: present if passport was fetched from the endpoint with this token before
+     * and has not expired yet.
+     */
+    Optional<Collection<String>> get(String userInfoEndpoint, String accessToken) {
+        return get(new Key(false, userInfoEndpoint, Digests.sha256(accessToken)));
+    }
+
+    /**
+     * Returns cached passport for the opaque access token, if any.
+     *
+     * @param userInfoEndpoint "/userinfo" endpoint URL.
+     * @param accessToken      Opaque access token.
+     * @return Optional list of visa JWT tokens: present if passport was fetched from the endpoint with this token before
+     * and has not expired yet.
+     */
+    Optional<Collection<String>> getOpaque(String userInfoEndpoint, String accessToken) {
+        return get(new Key(true, userInfoEndpoint, Digests.sha256(accessToken)));
+    }
+
+    /**
+     * Stores passport obtained with verified JWT access token. Passports of expired tokens are not stored.
+     *
+     * @param userInfoEndpoint "/userinfo" endpoint URL.
+     * @param accessToken      Access JWT token.
+     * @param exp              "exp" claim of the access token, seconds since epoch, or <code>null</code>.
+     * @param visaTokens       Visa JWT tokens obtained with this token.
+     */
+    void put(String userInfoEndpoint, String accessToken, Long exp, Collection<String> visaTokens) {
+        long ttl = maximumTtl.toNanos();
+        if (exp != null) {
+            ttl = Math.min(ttl, TimeUnit.SECONDS.toNanos(exp) - TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis()));
+        }
+        put(new Key(false, userInfoEndpoint, Digests.sha256(accessToken)), ttl, visaTokens);
+    }
+
+    /**
+     * Stores passport obtained with opaque access token.
+     *
+     * @param userInfoEndpoint "/userinfo" endpoint URL.
+     * @param accessToken      Opaque access token.
+     * @param visaTokens       Visa JWT tokens obtained with this token.
+     */
+    void putOpaque(String userInfoEndpoint, String accessToken, Collection<String> visaTokens) {
+        put(new Key(true, userInfoEndpoint, Digests.sha256(accessToken)), opaqueTokenTtl.toNanos(), visaTokens);
+    }
+
+    /**
+     * Removes all entries from the cache.
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    private Optional<Collection<String>> get(Key key) {
+        var passport = cache.getIfPresent(key);
+        return passport == null ? Optional.empty() : Optional.of(passport.visaTokens());
+    }
+
+    private void put(Key key, long ttlNanos, Collection<String> visaTokens) {
+        if (ttlNanos > 0) {
+            cache.put(key, new Passport(List.copyOf(visaTokens), ttlNanos));
+        }
+    }
+
+    private record Key(boolean opaque, String userInfoEndpoint, String accessTokenDigest) {
+    }
+
+    private record Passport(Collection<String> visaTokens, long ttlNanos) {
+    }
+
+    private static class PassportExpiry implements Expiry<Key, Passport> {
+
+        @Override
+        public long expireAfterCreate(Key key, Passport passport, long currentTime) {
+            return passport.ttlNanos();
+        }
+
+        @Override
+        public long expireAfterUpdate(Key key, Passport passport, long currentTime, long currentDuration) {
+            return passport.ttlNanos();
+        }
+
+        @Override
+        public long expireAfterRead(Key key, Passport passport, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+
+    }
+
+}
@@ -0,0 +1,59 @@
+package no.uio.ifi.clearinghouse;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming reader of "/userinfo" responses: pulls visa JWT tokens out of "ga4gh_passport_v1" claim
+ * without building a JSON tree of the whole response.
+ */
+final class PassportReader {
+
+    private static final String GA_4_GH_PASSPORT_V_1 = "ga4gh_passport_v1";
+
+    private PassportReader() {
+    }
+
+    /**
+     * Reads visa JWT tokens from "/userinfo" response.
+     *
+     * @param reader Response body reader.
+     * @return List of visa JWT tokens.
+     * @throws IOException         If response can't be read.
+     * @throws JsonSyntaxException If response is malformed or doesn't contain "ga4gh_passport_v1" claim.
+     */
+    static List<String> readVisaTokens(Reader reader) throws IOException {
+        try (JsonReader jsonReader = new JsonReader(reader)) {
+            jsonReader.beginObject();
+            while (jsonReader.hasNext()) {
+                if (GA_4_GH_PASSPORT_V_1.equals(jsonReader.nextName()) && jsonReader.peek() == JsonToken.BEGIN_ARRAY) {
+                    return readArray(jsonReader);
+                }
+                jsonReader.skipValue();
+            }
+            jsonReader.endObject();
+        } catch (IllegalStateException | MalformedJsonException | EOFException e) {
+            throw new JsonSyntaxException("Malformed userinfo response", e);
+        }
+        throw new JsonSyntaxException("No " + GA_4_GH_PASSPORT_V_1 + " claim in userinfo response");
+    }
+
+    private static List<String> readArray(JsonReader jsonReader) throws IOException {
+        List<String> visaTokens = new ArrayList<>();
+        jsonReader.beginArray();
+        while (jsonReader.hasNext()) {
+            visaTokens.add(jsonReader.nextString());
+        }
+        jsonReader.endArray();
+        return visaTokens;
+    }
+
+}
@@ -0,0 +1,87 @@
+package no.uio.ifi.clearinghouse;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Deduplicates concurrent calls with the same key: the first caller executes the call,
+ * others wait for its outcome instead of executing their own. Outcomes are not retained once the call completes,
+ * so failures are never cached. Synchronous and asynchronous calls with the same key are deduplicated together.
+ *
+ * @param <K> Type of the key.
+ * @param <V> Type of the result.
+ */
+final class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, CompletableFuture<V>> calls = new ConcurrentHashMap<>();
+
+    /**
+     * Executes the call, unless the call with the same key is already in flight, in which case waits for its result.
+     *
+     * @param key    Call key.
+     * @param loader Call to execute.
+     * @return Result of the call.
+     */
+    V execute(K key, Supplier<V> loader) {
+        var future = new CompletableFuture<V>();
+        var existing = calls.putIfAbsent(key, future);
+        if (existing != null) {
+            return join(existing);
+        }
+        try {
+            V value = loader.get();
+            future.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            calls.remove(key, future);
+        }
+    }
+
+    /**
+     * Starts the asynchronous call, unless the call with the same key is already in flight,
+     * in which case returns its future result. Each caller gets its own copy of the future,
+     * so cancellation by one caller does not affect the others.
+     *
+     * @param key    Call key.
+     * @param loader Asynchronous call to start.
+     * @return Future result of the call.
+     */
+    CompletableFuture<V> executeAsync(K key, Supplier<CompletableFuture<V>> loader) {
+        var future = new CompletableFuture<V>();
+        var existing = calls.putIfAbsent(key, future);
+        if (existing != null) {
+            return existing.copy();
+        }
+        future.whenComplete((value, throwable) -> calls.remove(key, future));
+        try {
+            loader.get().whenComplete((value, throwable) -> {
+                if (throwable == null) {
+                    future.complete(value);
+                } else {
+                    future.completeExceptionally(throwable);
+                }
+            });
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+        }
+        return future.copy();
+    }
+
+    private static <V> V join(CompletableFuture<V> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+}
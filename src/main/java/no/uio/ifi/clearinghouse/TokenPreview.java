@@ -0,0 +1,185 @@
+package no.uio.ifi.clearinghouse;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import io.jsonwebtoken.MalformedJwtException;
+import lombok.Getter;
+import lombok.ToString;
+import no.uio.ifi.clearinghouse.model.VisaType;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.function.Predicate;
+
+/**
+ * Unverified view of the JWT token: header and payload fields needed to route and pre-screen the token,
+ * decoded in a single pass without regular expressions. Nothing in this class is trustworthy until the signature
+ * of the token is verified, so it must only be used to reject tokens or to decide which ones to verify.
+ */
+@Getter
+@ToString
+public final class TokenPreview {
+
+    private static final String JKU = "jku";
+    private static final String KID = "kid";
+    private static final String EXP = "exp";
+    private static final String NBF = "nbf";
+    private static final String ISS = "iss";
+    private static final String GA_4_GH_VISA_V_1 = "ga4gh_visa_v1";
+    private static final String TYPE = "type";
+    private static final String VALUE = "value";
+    private static final String SOURCE = "source";
+
+    private String jku;                         // JWK set URL from header
+
+    private String kid;                         // key ID from header
+
+    private Long exp;                           // expiration, seconds since epoch
+
+    private Long nbf;                           // not before, seconds since epoch
+
+    private String iss;                         // issuer
+
+    private String visaType;                    // "type" of "ga4gh_visa_v1" claim, if any
+
+    private String value;                       // "value" of "ga4gh_visa_v1" claim, if any
+
+    private String source;                      // "source" of "ga4gh_visa_v1" claim, if any
+
+    private TokenPreview() {
+    }
+
+    /**
+     * Decodes header and payload of the JWT token without verifying its signature.
+     *
+     * @param token JWT token.
+     * @return <code>TokenPreview</code> instance.
+     * @throws MalformedJwtException If the token is not a well-formed signed JWT.
+     */
+    public static TokenPreview parse(String token) {
+        int headerEnd = token.indexOf('.');
+        int payloadEnd = headerEnd < 0 ? -1 : token.indexOf('.', headerEnd + 1);
+        if (headerEnd <= 0 || payloadEnd < 0 || payloadEnd == headerEnd + 1
+                || payloadEnd == token.length() - 1 || token.indexOf('.', payloadEnd + 1) >= 0) {
+            throw new MalformedJwtException("Token is not a signed JWT");
+        }
+        var preview = new TokenPreview();
+        try {
+            preview.readHeader(open(token, 0, headerEnd));
+            preview.readPayload(open(token, headerEnd + 1, payloadEnd));
+        } catch (IOException | RuntimeException e) {
+            throw new MalformedJwtException("Malformed JWT: " + e.getMessage(), e);
+        }
+        return preview;
+    }
+
+    /**
+     * Checks whether the token has expired.
+     *
+     * @param now Current time, seconds since epoch.
+     * @return <code>true</code> if token has "exp" claim which is in the past.
+     */
+    public boolean isExpired(long now) {
+        return exp != null && exp < now;
+    }
+
+    /**
+     * Checks whether the token is not valid yet.
+     *
+     * @param now Current time, seconds since epoch.
+     * @return <code>true</code> if token has "nbf" claim which is in the future.
+     */
+    public boolean isPremature(long now) {
+        return nbf != null && nbf > now;
+    }
+
+    /**
+     * Checks whether the token is a visa of the specified type. Useful as a filter of visa tokens to verify.
+     *
+     * @param type Visa type.
+     * @return <code>true</code> if "type" of "ga4gh_visa_v1" claim equals the type specified.
+     */
+    public boolean isVisaType(VisaType type) {
+        return type.name().equals(visaType);
+    }
+
+    /**
+     * Returns ordering of visa tokens placing likely matches first, otherwise keeping the original order.
+     * Useful for verifying the tokens that are most likely to decide access first.
+     *
+     * @param likely Predicate telling whether the token is a likely match, e.g. by unverified type and value.
+     * @return Comparator of token previews.
+     */
+    public static Comparator<TokenPreview> likelyFirst(Predicate<TokenPreview> likely) {
+        return Comparator.comparing(preview -> !likely.test(preview));
+    }
+
+    private static JsonReader open(String token, int start, int end) {
+        var bytes = Base64.getUrlDecoder().decode(token.substring(start, end));
+        return new JsonReader(new InputStreamReader(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8));
+    }
+
+    private void readHeader(JsonReader reader) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case JKU -> jku = nextString(reader);
+                case KID -> kid = nextString(reader);
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private void readPayload(JsonReader reader) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case EXP -> exp = nextSeconds(reader);
+                case NBF -> nbf = nextSeconds(reader);
+                case ISS -> iss = nextString(reader);
+                case GA_4_GH_VISA_V_1 -> readVisa(reader);
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private void readVisa(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return;
+        }
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case TYPE -> visaType = nextString(reader);
+                case VALUE -> value = nextString(reader);
+                case SOURCE -> source = nextString(reader);
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private static String nextString(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+
+    private static Long nextSeconds(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return (long) reader.nextDouble();
+    }
+
+}
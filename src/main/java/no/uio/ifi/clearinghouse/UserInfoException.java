@@ -0,0 +1,14 @@
+package no.uio.ifi.clearinghouse;
+
+/**
+ * Exception thrown when "/userinfo" endpoint responds with an error status.
+ */
+class UserInfoException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    UserInfoException(String message) {
+        super(message);
+    }
+
+}
@@ -0,0 +1,28 @@
+package no.uio.ifi.clearinghouse;
+
+import io.jsonwebtoken.JwtException;
+import lombok.Getter;
+import no.uio.ifi.clearinghouse.instrumentation.Failure;
+
+/**
+ * Exception thrown when the token is rejected for a reason not covered by jjwt exceptions,
+ * carrying the reason of the rejection.
+ */
+@Getter
+public class ValidationException extends JwtException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Failure failure;
+
+    public ValidationException(Failure failure, String message) {
+        super(message);
+        this.failure = failure;
+    }
+
+    public ValidationException(Failure failure, String message, Throwable cause) {
+        super(message, cause);
+        this.failure = failure;
+    }
+
+}
@@ -0,0 +1,104 @@
+package no.uio.ifi.clearinghouse;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import no.uio.ifi.clearinghouse.model.Visa;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded cache of verified visas, keyed by SHA-256 digest of the visa JWT token.
+ * Entries are evicted no later than the "exp" claim of the token they were obtained from.
+ * Visas are stored as read-only copies, shared between callers.
+ */
+public class VisaCache {
+
+    private final Duration maximumTtl;
+
+    private final Cache<String, Visa> cache;
+
+    /**
+     * Creates the cache.
+     *
+     * @param maximumSize Maximum number of visas to keep.
+     * @param maximumTtl  Maximum time to keep a visa for, regardless of its expiration.
+     */
+    public VisaCache(long maximumSize, Duration maximumTtl) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("Maximum size must be positive");
+        }
+        if (maximumTtl.isNegative() || maximumTtl.isZero()) {
+            throw new IllegalArgumentException("Maximum TTL must be positive");
+        }
+        this.maximumTtl = maximumTtl;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfter(new VisaExpiry())
+                .build();
+    }
+
+    /**
+     * Returns cached visa for the token, if any.
+     *
+     * @param visaToken Visa JWT token.
+     * @return Optional <code>Visa</code> POJO: present if token was validated before and has not expired yet.
+     */
+    Optional<Visa> get(String visaToken) {
+        return Optional.ofNullable(cache.getIfPresent(Digests.sha256(visaToken)));
+    }
+
+    /**
+     * Stores read-only copy of verified visa. Visas which have already expired are not stored.
+     *
+     * @param visaToken Visa JWT token.
+     * @param visa      <code>Visa</code> POJO obtained from this token.
+     * @return Stored read-only copy, or the visa itself if it was not stored.
+     */
+    Visa put(String visaToken, Visa visa) {
+        if (ttlNanos(visa) <= 0) {
+            return visa;
+        }
+        var copy = visa.readOnlyCopy();
+        cache.put(Digests.sha256(visaToken), copy);
+        return copy;
+    }
+
+    /**
+     * Removes all entries from the cache.
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    private long ttlNanos(Visa visa) {
+        long maximum = maximumTtl.toNanos();
+        if (visa.getExp() == null) {
+            return maximum;
+        }
+        long remaining = TimeUnit.SECONDS.toNanos(visa.getExp()) - TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+        return Math.min(remaining, maximum);
+    }
+
+    private class VisaExpiry implements Expiry<String, Visa> {
+
+        @Override
+        public long expireAfterCreate(String key, Visa visa, long currentTime) {
+            return Math.max(ttlNanos(visa), 0);
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, Visa visa, long currentTime, long currentDuration) {
+            return Math.max(ttlNanos(visa), 0);
+        }
+
+        @Override
+        public long expireAfterRead(String key, Visa visa, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+
+    }
+
+}
@@ -0,0 +1,122 @@
+package no.uio.ifi.clearinghouse;
+
+import lombok.extern.slf4j.Slf4j;
+import no.uio.ifi.clearinghouse.model.Visa;
+
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Publisher of Visas verified one by one, on demand: no token is verified before the subscriber requests it,
+ * and no more tokens are verified once the subscriber cancels.
+ * Each subscriber gets its own pass over the visa tokens. Subscribers are signalled on the executor provided.
+ * Completion is signalled as soon as no tokens are left, whether or not there is outstanding demand.
+ */
+@Slf4j
+final class VisaPublisher implements Flow.Publisher<Visa> {
+
+    private final Supplier<Stream<Supplier<Optional<Visa>>>> verifications;
+
+    private final Executor executor;
+
+    /**
+     * Creates the publisher.
+     *
+     * @param verifications Supplier of lazy streams of deferred visa token verifications, one per token.
+     * @param executor      Executor to verify visa tokens and signal subscribers on.
+     */
+    VisaPublisher(Supplier<Stream<Supplier<Optional<Visa>>>> verifications, Executor executor) {
+        this.verifications = verifications;
+        this.executor = executor;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Visa> subscriber) {
+        var subscription = new VisaSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+    }
+
+    private final class VisaSubscription implements Flow.Subscription {
+
+        private final Flow.Subscriber<? super Visa> subscriber;
+
+        private final AtomicLong demand = new AtomicLong();
+
+        private final AtomicInteger pending = new AtomicInteger();
+
+        private volatile boolean cancelled;
+
+        private Iterator<Supplier<Optional<Visa>>> iterator;
+
+        private VisaSubscription(Flow.Subscriber<? super Visa> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (cancelled) {
+                return;
+            }
+            if (n <= 0) {
+                cancelled = true;
+                executor.execute(() -> subscriber.onError(new IllegalArgumentException("Requested non-positive number of Visas: " + n)));
+                return;
+            }
+            demand.accumulateAndGet(n, (current, requested) -> current + requested < 0 ? Long.MAX_VALUE : current + requested);
+            if (pending.getAndIncrement() == 0) {
+                executor.execute(this::drain);
+            }
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+
+        /**
+         * Emits Visas while there is demand, and completes once no tokens are left. Runs on one thread at a time:
+         * requests arriving meanwhile are picked up by the running drain instead of starting another one.
+         */
+        private void drain() {
+            int missed = 1;
+            try {
+                if (iterator == null) {
+                    iterator = verifications.get().iterator();
+                }
+                do {
+                    while (!cancelled) {
+                        if (!iterator.hasNext()) {
+                            cancelled = true;
+                            subscriber.onComplete();
+                            return;
+                        }
+                        if (demand.get() == 0) {
+                            break;
+                        }
+                        var visa = iterator.next().get();
+                        if (visa.isPresent()) {
+                            demand.decrementAndGet();
+                            subscriber.onNext(visa.get());
+                        }
+                    }
+                    if (cancelled) {
+                        return;
+                    }
+                    missed = pending.addAndGet(-missed);
+                } while (missed != 0);
+            } catch (RuntimeException e) {
+                log.error(e.getMessage(), e);
+                cancelled = true;
+                subscriber.onError(e);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,104 @@
+package no.uio.ifi.clearinghouse.conditions;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import no.uio.ifi.clearinghouse.model.Condition;
+
+import java.util.List;
+
+/**
+ * Compiled conditions of the visa: alternatives (OR), each being a list of conditions that all have to be met (AND).
+ * Compiled conditions are immutable and cached, so equal conditions of different visas are compiled once.
+ */
+public final class CompiledConditions {
+
+    /**
+     * Conditions of the visa without conditions: always satisfied.
+     */
+    public static final CompiledConditions NONE = new CompiledConditions(List.of());
+
+    /**
+     * Result of {@link #satisfiedUntil(PassportIndex)} for conditions met by visas that don't expire.
+     */
+    public static final long NO_EXPIRY = Long.MAX_VALUE;
+
+    /**
+     * Result of {@link #satisfiedUntil(PassportIndex)} for conditions not met.
+     */
+    public static final long NOT_SATISFIED = Long.MIN_VALUE;
+
+    private static final long MAXIMUM_SIZE = 10_000;
+
+    private static final Cache<List<List<Condition>>, CompiledConditions> CACHE = Caffeine.newBuilder()
+            .maximumSize(MAXIMUM_SIZE)
+            .build();
+
+    private final List<List<ConditionMatcher>> alternatives;
+
+    private CompiledConditions(List<List<ConditionMatcher>> alternatives) {
+        this.alternatives = alternatives;
+    }
+
+    /**
+     * Compiles conditions of the visa.
+     *
+     * @param conditions Conditions of the visa, as returned by <code>Visa.conditions()</code>.
+     * @return <code>CompiledConditions</code> instance.
+     */
+    public static CompiledConditions compile(List<List<Condition>> conditions) {
+        if (conditions == null || conditions.isEmpty()) {
+            return NONE;
+        }
+        return CACHE.get(conditions, c -> new CompiledConditions(c
+                .stream()
+                .map(clause -> clause.stream().map(ConditionMatcher::new).toList())
+                .toList()));
+    }
+
+    /**
+     * Checks whether conditions are satisfied by the passport: at least one alternative has all its conditions met.
+     * Empty alternatives are never met.
+     *
+     * @param index Index of passport visas.
+     * @return <code>true</code> if there are no conditions or conditions are satisfied.
+     */
+    public boolean isSatisfied(PassportIndex index) {
+        return satisfiedUntil(index) != NOT_SATISFIED;
+    }
+
+    /**
+     * Returns time until which conditions stay satisfied by the passport: the latest time, over the alternatives met,
+     * of the earliest expiration of the visas meeting its conditions.
+     *
+     * @param index Index of passport visas.
+     * @return Seconds since epoch, {@link #NO_EXPIRY} if there are no conditions or the visas meeting them don't expire,
+     * or {@link #NOT_SATISFIED}.
+     */
+    public long satisfiedUntil(PassportIndex index) {
+        if (alternatives.isEmpty()) {
+            return NO_EXPIRY;
+        }
+        long until = NOT_SATISFIED;
+        for (List<ConditionMatcher> clause : alternatives) {
+            if (!clause.isEmpty()) {
+                until = Math.max(until, satisfiedUntil(clause, index));
+            }
+        }
+        return until;
+    }
+
+    private static long satisfiedUntil(List<ConditionMatcher> clause, PassportIndex index) {
+        long until = NO_EXPIRY;
+        for (ConditionMatcher condition : clause) {
+            var match = condition.findMatch(index);
+            if (match == null) {
+                return NOT_SATISFIED;
+            }
+            if (match.getExp() != null) {
+                until = Math.min(until, match.getExp());
+            }
+        }
+        return until;
+    }
+
+}
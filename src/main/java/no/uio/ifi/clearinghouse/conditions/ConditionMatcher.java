@@ -0,0 +1,62 @@
+package no.uio.ifi.clearinghouse.conditions;
+
+import no.uio.ifi.clearinghouse.model.Condition;
+import no.uio.ifi.clearinghouse.model.Visa;
+
+/**
+ * Compiled single condition: matches visas of the condition type whose fields match all field conditions present.
+ * Conditions with constant value are looked up in the index directly, instead of scanning all visas of the type.
+ */
+final class ConditionMatcher {
+
+    private final String type;
+
+    private final String constantValue;
+
+    private final FieldMatcher value;
+
+    private final FieldMatcher source;
+
+    private final FieldMatcher by;
+
+    ConditionMatcher(Condition condition) {
+        this.type = condition.type();
+        this.value = compile(condition.value());
+        this.source = compile(condition.source());
+        this.by = compile(condition.by());
+        this.constantValue = value instanceof FieldMatcher.Const constant ? constant.constant() : null;
+    }
+
+    /**
+     * Finds the visa of the passport meeting the condition which expires last.
+     *
+     * @param index Index of passport visas.
+     * @return Matching visa or <code>null</code> if the condition is not met.
+     */
+    Visa findMatch(PassportIndex index) {
+        if (type == null) {
+            return null;
+        }
+        Visa match = null;
+        for (Visa visa : index.candidates(type, constantValue)) {
+            if (matches(value, visa.getValue()) && matches(source, visa.getSource()) && matches(by, visa.getBy())) {
+                if (visa.getExp() == null) {
+                    return visa;
+                }
+                if (match == null || visa.getExp() > match.getExp()) {
+                    match = visa;
+                }
+            }
+        }
+        return match;
+    }
+
+    private static FieldMatcher compile(String condition) {
+        return condition == null ? null : FieldMatcher.compile(condition);
+    }
+
+    private static boolean matches(FieldMatcher matcher, String value) {
+        return matcher == null || matcher.matches(value);
+    }
+
+}
@@ -0,0 +1,61 @@
+package no.uio.ifi.clearinghouse.conditions;
+
+import no.uio.ifi.clearinghouse.model.Visa;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Evaluator of GA4GH visa conditions. Visa with conditions is valid only if at least one of its alternatives
+ * has all its conditions met by other visas of the same passport. Condition fields support "const:" (exact match),
+ * "pattern:" (glob with "?" and "*") and "split_pattern:" (glob matched against ";"-separated items of the field).
+ */
+public final class ConditionsEvaluator {
+
+    private ConditionsEvaluator() {
+    }
+
+    /**
+     * Filters visas of the passport, keeping the ones without conditions and the ones whose conditions are met
+     * by visas not expired at the moment. The passport is indexed once, so evaluation time grows linearly with its size.
+     *
+     * @param passport Validated visas of the passport.
+     * @return Visas that are valid within the passport, in the original order.
+     */
+    public static List<Visa> filterSatisfied(Collection<Visa> passport) {
+        var index = PassportIndex.of(passport);
+        List<Visa> visas = new ArrayList<>(passport.size());
+        for (Visa visa : passport) {
+            if (isSatisfied(visa, index)) {
+                visas.add(visa);
+            }
+        }
+        return visas;
+    }
+
+    /**
+     * Checks whether conditions of the visa are met within the passport.
+     *
+     * @param visa  Visa.
+     * @param index Index of the passport.
+     * @return <code>true</code> if visa has no conditions or its conditions are met.
+     */
+    public static boolean isSatisfied(Visa visa, PassportIndex index) {
+        return CompiledConditions.compile(visa.conditions()).isSatisfied(index);
+    }
+
+    /**
+     * Returns time until which conditions of the visa stay met within the passport,
+     * bounded by expiration of the visas meeting them.
+     *
+     * @param visa  Visa.
+     * @param index Index of the passport.
+     * @return Seconds since epoch, <code>CompiledConditions.NO_EXPIRY</code> if visa has no conditions
+     * or they are met by visas that don't expire, or <code>CompiledConditions.NOT_SATISFIED</code>.
+     */
+    public static long satisfiedUntil(Visa visa, PassportIndex index) {
+        return CompiledConditions.compile(visa.conditions()).satisfiedUntil(index);
+    }
+
+}
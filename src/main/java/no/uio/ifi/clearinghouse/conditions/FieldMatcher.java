@@ -0,0 +1,83 @@
+package no.uio.ifi.clearinghouse.conditions;
+
+/**
+ * Compiled matcher of a single visa field value, parsed once from its "const:", "pattern:" or "split_pattern:" form.
+ */
+sealed interface FieldMatcher {
+
+    String CONST = "const:";
+    String PATTERN = "pattern:";
+    String SPLIT_PATTERN = "split_pattern:";
+    char SEPARATOR = ';';
+
+    boolean matches(String value);
+
+    /**
+     * Compiles field condition. Values without a known prefix are matched literally.
+     *
+     * @param condition Field condition, e.g. "pattern:https://*.example.org/".
+     * @return <code>FieldMatcher</code> instance.
+     */
+    static FieldMatcher compile(String condition) {
+        if (condition.startsWith(PATTERN)) {
+            return new Pattern(Glob.compile(condition.substring(PATTERN.length())));
+        }
+        if (condition.startsWith(SPLIT_PATTERN)) {
+            return new SplitPattern(Glob.compile(condition.substring(SPLIT_PATTERN.length())));
+        }
+        if (condition.startsWith(CONST)) {
+            return new Const(condition.substring(CONST.length()));
+        }
+        return new Const(condition);
+    }
+
+    /**
+     * Matches values equal to the constant.
+     */
+    record Const(String constant) implements FieldMatcher {
+
+        @Override
+        public boolean matches(String value) {
+            return constant.equals(value);
+        }
+
+    }
+
+    /**
+     * Matches values matching the glob pattern.
+     */
+    record Pattern(Glob glob) implements FieldMatcher {
+
+        @Override
+        public boolean matches(String value) {
+            return value != null && glob.matches(value, 0, value.length());
+        }
+
+    }
+
+    /**
+     * Matches values which, split on ";", contain at least one item matching the glob pattern.
+     */
+    record SplitPattern(Glob glob) implements FieldMatcher {
+
+        @Override
+        public boolean matches(String value) {
+            if (value == null) {
+                return false;
+            }
+            int start = 0;
+            while (true) {
+                int end = value.indexOf(SEPARATOR, start);
+                if (end < 0) {
+                    return glob.matches(value, start, value.length());
+                }
+                if (glob.matches(value, start, end)) {
+                    return true;
+                }
+                start = end + 1;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,80 @@
+package no.uio.ifi.clearinghouse.conditions;
+
+/**
+ * Compiled glob pattern: "?" matches any single character, "*" matches any sequence of characters,
+ * other characters match themselves. Patterns without wildcards are matched with plain string comparison
+ * and patterns with a single trailing "*" with prefix comparison; others are matched without backtracking
+ * beyond the last "*", in time linear in the value length for typical patterns.
+ */
+final class Glob {
+
+    private static final char ANY_SEQUENCE = '*';
+    private static final char ANY_CHARACTER = '?';
+
+    private final String pattern;
+
+    private final Kind kind;
+
+    private enum Kind {
+        LITERAL, PREFIX, WILDCARD
+    }
+
+    private Glob(String pattern, Kind kind) {
+        this.pattern = pattern;
+        this.kind = kind;
+    }
+
+    static Glob compile(String pattern) {
+        int sequence = pattern.indexOf(ANY_SEQUENCE);
+        boolean anyCharacter = pattern.indexOf(ANY_CHARACTER) >= 0;
+        if (sequence < 0 && !anyCharacter) {
+            return new Glob(pattern, Kind.LITERAL);
+        }
+        if (!anyCharacter && sequence == pattern.length() - 1) {
+            return new Glob(pattern.substring(0, sequence), Kind.PREFIX);
+        }
+        return new Glob(pattern, Kind.WILDCARD);
+    }
+
+    /**
+     * Matches the region of the value against the pattern.
+     *
+     * @param value Value.
+     * @param start Start of the region, inclusive.
+     * @param end   End of the region, exclusive.
+     * @return <code>true</code> if the whole region matches.
+     */
+    boolean matches(String value, int start, int end) {
+        return switch (kind) {
+            case LITERAL -> end - start == pattern.length() && value.startsWith(pattern, start);
+            case PREFIX -> end - start >= pattern.length() && value.startsWith(pattern, start);
+            case WILDCARD -> matchesWildcard(value, start, end);
+        };
+    }
+
+    private boolean matchesWildcard(String value, int start, int end) {
+        int p = 0;
+        int v = start;
+        int lastSequence = -1;
+        int resumeAt = start;
+        while (v < end) {
+            if (p < pattern.length() && pattern.charAt(p) == ANY_SEQUENCE) {
+                lastSequence = p++;
+                resumeAt = v;
+            } else if (p < pattern.length() && (pattern.charAt(p) == ANY_CHARACTER || pattern.charAt(p) == value.charAt(v))) {
+                p++;
+                v++;
+            } else if (lastSequence >= 0) {
+                p = lastSequence + 1;
+                v = ++resumeAt;
+            } else {
+                return false;
+            }
+        }
+        while (p < pattern.length() && pattern.charAt(p) == ANY_SEQUENCE) {
+            p++;
+        }
+        return p == pattern.length();
+    }
+
+}
@@ -0,0 +1,75 @@
+package no.uio.ifi.clearinghouse.conditions;
+
+import no.uio.ifi.clearinghouse.model.Visa;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of passport visas that can satisfy conditions of other visas, by type and by type and value.
+ * Visas which have conditions themselves are not indexed, which rules out circular conditions,
+ * and neither are expired visas.
+ */
+public final class PassportIndex {
+
+    private final Map<String, List<Visa>> byType = new HashMap<>();
+
+    private final Map<String, Map<String, List<Visa>>> byTypeAndValue = new HashMap<>();
+
+    private PassportIndex() {
+    }
+
+    /**
+     * Builds the index of visas not expired at the moment in a single pass over the visas.
+     *
+     * @param visas Validated visas of the passport.
+     * @return <code>PassportIndex</code> instance.
+     */
+    public static PassportIndex of(Collection<Visa> visas) {
+        return of(visas, System.currentTimeMillis() / 1000);
+    }
+
+    /**
+     * Builds the index of visas not expired at the given time in a single pass over the visas.
+     *
+     * @param visas Validated visas of the passport.
+     * @param now   Current time, seconds since epoch.
+     * @return <code>PassportIndex</code> instance.
+     */
+    public static PassportIndex of(Collection<Visa> visas, long now) {
+        var index = new PassportIndex();
+        for (Visa visa : visas) {
+            var conditions = visa.conditions();
+            if (visa.getType() == null || conditions != null && !conditions.isEmpty()
+                    || visa.getExp() != null && visa.getExp() <= now) {
+                continue;
+            }
+            index.byType.computeIfAbsent(visa.getType(), t -> new ArrayList<>()).add(visa);
+            if (visa.getValue() != null) {
+                index.byTypeAndValue
+                        .computeIfAbsent(visa.getType(), t -> new HashMap<>())
+                        .computeIfAbsent(visa.getValue(), v -> new ArrayList<>(1))
+                        .add(visa);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Returns visas which may match the condition.
+     *
+     * @param type  Visa type.
+     * @param value Constant value or <code>null</code> if value is not constrained to a constant.
+     * @return Visas of the type (and value, if specified).
+     */
+    List<Visa> candidates(String type, String value) {
+        if (value == null) {
+            return byType.getOrDefault(type, List.of());
+        }
+        return byTypeAndValue.getOrDefault(type, Map.of()).getOrDefault(value, List.of());
+    }
+
+}
@@ -0,0 +1,19 @@
+package no.uio.ifi.clearinghouse.instrumentation;
+
+/**
+ * Enum containing reasons of token validation failures.
+ */
+public enum Failure {
+
+    MALFORMED,
+    EXPIRED,
+    PREMATURE,
+    UNTRUSTED_ISSUER,
+    UNTRUSTED_JKU,
+    KEY_NOT_FOUND,
+    KEY_FETCH_FAILED,
+    INVALID_SIGNATURE,
+    INVALID_CLAIMS,
+    UNKNOWN
+
+}
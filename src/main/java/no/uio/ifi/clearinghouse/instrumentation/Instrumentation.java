@@ -0,0 +1,81 @@
+package no.uio.ifi.clearinghouse.instrumentation;
+
+/**
+ * Instrumentation SPI of the token validation. All methods default to no-op, so implementations
+ * (e.g. Micrometer or Prometheus bridges) only override what they need. Implementations must be thread-safe and cheap:
+ * they are invoked on the validation hot path.
+ */
+public interface Instrumentation {
+
+    /**
+     * No-op instrumentation, used by default.
+     */
+    Instrumentation NOOP = new Instrumentation() {
+    };
+
+    /**
+     * Starts timing of the validation stage.
+     *
+     * @param stage  Validation stage.
+     * @param target Stage target: URL for fetches, issuer for signature verification and claims decoding.
+     * @return <code>Timer</code> to be stopped once the stage completes.
+     */
+    default Timer start(Stage stage, String target) {
+        return Timer.NOOP;
+    }
+
+    /**
+     * Records the key found in the JWK cache without fetching the JWK set.
+     *
+     * @param jku JKU URL.
+     */
+    default void keyCacheHit(String jku) {
+    }
+
+    /**
+     * Records the key not found in the JWK cache, so that the JWK set had to be fetched.
+     *
+     * @param jku JKU URL.
+     */
+    default void keyCacheMiss(String jku) {
+    }
+
+    /**
+     * Records the JWK set evicted from the JWK cache due to its size limit.
+     *
+     * @param jku JKU URL.
+     */
+    default void keyCacheEviction(String jku) {
+    }
+
+    /**
+     * Records the token rejected during validation.
+     *
+     * @param issuer  Issuer of the token ("iss" claim, unverified), <code>null</code> if unknown.
+     * @param failure Reason of the failure.
+     */
+    default void validationFailure(String issuer, Failure failure) {
+    }
+
+    /**
+     * Timer of the single validation stage.
+     */
+    @FunctionalInterface
+    interface Timer {
+
+        /**
+         * No-op timer.
+         */
+        Timer NOOP = success -> {
+        };
+
+        /**
+         * Stops the timer.
+         *
+         * @param success <code>true</code> if the stage completed successfully.
+         */
+        void stop(boolean success);
+
+    }
+
+}
@@ -0,0 +1,114 @@
+package no.uio.ifi.clearinghouse.instrumentation;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Instrumentation emitting JDK Flight Recorder events, so that validation can be profiled in production
+ * without attaching an agent. Events are only allocated when enabled in the running recording.
+ */
+public class JfrInstrumentation implements Instrumentation {
+
+    private static final String CATEGORY = "Clearinghouse";
+
+    @Override
+    public Timer start(Stage stage, String target) {
+        var event = new StageEvent();
+        if (!event.isEnabled()) {
+            return Timer.NOOP;
+        }
+        event.stage = stage.name();
+        event.target = target;
+        event.begin();
+        return success -> {
+            event.end();
+            if (event.shouldCommit()) {
+                event.success = success;
+                event.commit();
+            }
+        };
+    }
+
+    @Override
+    public void keyCacheHit(String jku) {
+        commitKeyCacheEvent(jku, "hit");
+    }
+
+    @Override
+    public void keyCacheMiss(String jku) {
+        commitKeyCacheEvent(jku, "miss");
+    }
+
+    @Override
+    public void keyCacheEviction(String jku) {
+        commitKeyCacheEvent(jku, "eviction");
+    }
+
+    @Override
+    public void validationFailure(String issuer, Failure failure) {
+        var event = new ValidationFailureEvent();
+        if (event.shouldCommit()) {
+            event.issuer = issuer;
+            event.failure = failure.name();
+            event.commit();
+        }
+    }
+
+    private static void commitKeyCacheEvent(String jku, String outcome) {
+        var event = new KeyCacheEvent();
+        if (event.shouldCommit()) {
+            event.jku = jku;
+            event.outcome = outcome;
+            event.commit();
+        }
+    }
+
+    @Name("no.uio.ifi.clearinghouse.Stage")
+    @Label("Validation Stage")
+    @Description("Single stage of the token validation")
+    @Category(CATEGORY)
+    static class StageEvent extends Event {
+
+        @Label("Stage")
+        String stage;
+
+        @Label("Target")
+        String target;
+
+        @Label("Success")
+        boolean success;
+
+    }
+
+    @Name("no.uio.ifi.clearinghouse.KeyCache")
+    @Label("JWK Cache Access")
+    @Description("Hit, miss or eviction in the JWK cache")
+    @Category(CATEGORY)
+    static class KeyCacheEvent extends Event {
+
+        @Label("JKU")
+        String jku;
+
+        @Label("Outcome")
+        String outcome;
+
+    }
+
+    @Name("no.uio.ifi.clearinghouse.ValidationFailure")
+    @Label("Validation Failure")
+    @Description("Token rejected during validation")
+    @Category(CATEGORY)
+    static class ValidationFailureEvent extends Event {
+
+        @Label("Issuer")
+        String issuer;
+
+        @Label("Failure")
+        String failure;
+
+    }
+
+}
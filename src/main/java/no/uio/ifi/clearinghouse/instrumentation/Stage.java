@@ -0,0 +1,17 @@
+package no.uio.ifi.clearinghouse.instrumentation;
+
+/**
+ * Enum containing timed stages of the token validation.
+ * <code>SIGNATURE_VERIFY</code> covers parsing of the token, which decodes its header and payload
+ * and verifies its signature in one pass. <code>CLAIMS_DECODE</code> follows it for visa tokens and covers
+ * turning the verified claims into a <code>Visa</code>, including the required fields check: the stages don't overlap.
+ */
+public enum Stage {
+
+    DISCOVERY_FETCH,
+    USERINFO_FETCH,
+    JWKS_FETCH,
+    SIGNATURE_VERIFY,
+    CLAIMS_DECODE
+
+}
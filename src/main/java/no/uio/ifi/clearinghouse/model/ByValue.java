@@ -1,10 +1,38 @@
 package no.uio.ifi.clearinghouse.model;
 
+import java.util.Locale;
+
 /**
  * Enum containing possible values of "by" property of the visa.
  */
 public enum ByValue {
 
-    SELF, PEER, SYSTEM, SO, DAC
+    SELF, PEER, SYSTEM, SO, DAC;
+
+    private final String value = name().toLowerCase(Locale.ROOT);
+
+    /**
+     * Returns the value as it appears in visas, e.g. "system".
+     *
+     * @return Lowercase value.
+     */
+    public String value() {
+        return value;
+    }
+
+    /**
+     * Looks up the enum constant by its value in visas.
+     *
+     * @param value Value of "by" property, e.g. "system".
+     * @return <code>ByValue</code> constant or <code>null</code> if the value is not a standard one.
+     */
+    public static ByValue fromValue(String value) {
+        for (ByValue byValue : values()) {
+            if (byValue.value.equals(value)) {
+                return byValue;
+            }
+        }
+        return null;
+    }
 
 }
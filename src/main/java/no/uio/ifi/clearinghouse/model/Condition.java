@@ -0,0 +1,64 @@
+package no.uio.ifi.clearinghouse.model;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Immutable condition of the visa: a visa matching these fields must also be present in the passport.
+ * Field values may carry "const:", "pattern:" or "split_pattern:" prefixes.
+ *
+ * @param type   Visa type.
+ * @param value  Value, if any.
+ * @param source Source, if any.
+ * @param by     "By" value, if any.
+ */
+public record Condition(String type, String value, String source, String by) {
+
+    private static final String TYPE = "type";
+    private static final String VALUE = "value";
+    private static final String SOURCE = "source";
+    private static final String BY = "by";
+
+    public Condition {
+        type = StringPool.intern(type);
+        value = StringPool.intern(value);
+        source = StringPool.intern(source);
+        by = StringPool.intern(by);
+    }
+
+    /**
+     * Creates condition from its JSON object representation.
+     *
+     * @param map Condition object.
+     * @return <code>Condition</code> instance.
+     */
+    public static Condition fromMap(Map<?, ?> map) {
+        return new Condition(stringValue(map.get(TYPE)), stringValue(map.get(VALUE)),
+                stringValue(map.get(SOURCE)), stringValue(map.get(BY)));
+    }
+
+    /**
+     * Returns JSON object representation of the condition, without absent fields.
+     *
+     * @return Condition object.
+     */
+    public Map<String, String> toMap() {
+        Map<String, String> map = new LinkedHashMap<>();
+        putIfPresent(map, TYPE, type);
+        putIfPresent(map, VALUE, value);
+        putIfPresent(map, SOURCE, source);
+        putIfPresent(map, BY, by);
+        return map;
+    }
+
+    private static String stringValue(Object value) {
+        return value == null ? null : value.toString();
+    }
+
+    private static void putIfPresent(Map<String, String> map, String key, String value) {
+        if (value != null) {
+            map.put(key, value);
+        }
+    }
+
+}
@@ -0,0 +1,20 @@
+package no.uio.ifi.clearinghouse.model;
+
+import com.github.benmanes.caffeine.cache.Interner;
+
+/**
+ * Pool of strings repeating across visas (sources, values, subjects), so that equal strings share one instance.
+ * Pooled strings are weakly referenced and are garbage collected once no visa uses them.
+ */
+final class StringPool {
+
+    private static final Interner<String> INTERNER = Interner.newWeakInterner();
+
+    private StringPool() {
+    }
+
+    static String intern(String value) {
+        return value == null ? null : INTERNER.intern(value);
+    }
+
+}
@@ -1,37 +1,237 @@
 package no.uio.ifi.clearinghouse.model;
 
-import lombok.Data;
+import com.google.gson.annotations.JsonAdapter;
+import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
 import lombok.NonNull;
 import lombok.ToString;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
 /**
  * POJO representing Crypt4GH visa.
+ * Standard "type" and "by" values are stored as enum constants, repeating strings are pooled
+ * and conditions are stored as immutable <code>Condition</code> records, to keep large numbers of cached visas compact.
+ * String-based accessors are kept for compatibility.
+ * Read-only copies, e.g. the ones shared by <code>VisaCache</code>, throw <code>UnsupportedOperationException</code> from setters.
  */
-@Data
-@ToString
+@EqualsAndHashCode
+@ToString(onlyExplicitlyIncluded = true)
 @NoArgsConstructor
+@JsonAdapter(VisaJsonAdapter.class)
 public class Visa {
 
+    private static final long ABSENT = Long.MIN_VALUE;
+
     private String sub;                         // JWT subject
 
-    @NonNull
-    private String type;                        // passport visa type
+    private long exp = ABSENT;                  // JWT expiration, seconds since epoch
+
+    private VisaType visaType;                  // passport visa type, if standard
 
-    @NonNull
-    private Long asserted;                      // seconds since epoch
+    private String customType;                  // passport visa type, if not standard
+
+    private long asserted = ABSENT;             // seconds since epoch
 
-    @NonNull
     private String value;                       // value string
 
-    @NonNull
     private String source;                      // source URL
 
-    private List<List<Map<?, ?>>> conditions;   // conditions
+    private List<List<Condition>> conditions;   // conditions
+
+    @EqualsAndHashCode.Exclude
+    private volatile List<List<Map<?, ?>>> conditionMaps;   // JSON representation of conditions, built on demand
+
+    private ByValue byValue;                    // by identifier, if standard
+
+    private String customBy;                    // by identifier, if not standard
+
+    @EqualsAndHashCode.Exclude
+    private boolean readOnly;                   // setters are disabled
+
+    @ToString.Include
+    public String getSub() {
+        return sub;
+    }
+
+    public void setSub(String sub) {
+        checkWritable();
+        this.sub = StringPool.intern(sub);
+    }
+
+    @ToString.Include
+    public Long getExp() {
+        return exp == ABSENT ? null : exp;
+    }
+
+    public void setExp(Long exp) {
+        checkWritable();
+        this.exp = exp == null ? ABSENT : exp;
+    }
+
+    @ToString.Include
+    public String getType() {
+        return visaType != null ? visaType.name() : customType;
+    }
+
+    public void setType(@NonNull String type) {
+        checkWritable();
+        this.visaType = VisaType.fromName(type);
+        this.customType = visaType == null ? StringPool.intern(type) : null;
+    }
+
+    /**
+     * Returns standard visa type.
+     *
+     * @return <code>VisaType</code> or <code>null</code> for custom visa types.
+     */
+    public VisaType visaType() {
+        return visaType;
+    }
+
+    @ToString.Include
+    public Long getAsserted() {
+        return asserted == ABSENT ? null : asserted;
+    }
+
+    public void setAsserted(@NonNull Long asserted) {
+        checkWritable();
+        this.asserted = asserted;
+    }
+
+    @ToString.Include
+    public String getValue() {
+        return value;
+    }
+
+    public void setValue(@NonNull String value) {
+        checkWritable();
+        this.value = StringPool.intern(value);
+    }
+
+    @ToString.Include
+    public String getSource() {
+        return source;
+    }
+
+    public void setSource(@NonNull String source) {
+        checkWritable();
+        this.source = StringPool.intern(source);
+    }
+
+    /**
+     * Returns conditions in their JSON representation: list of alternatives, each being a list of conditions
+     * that all have to be met. The list passed to {@link #setConditions(List)} is returned as is, otherwise
+     * the representation is built on first call and kept; prefer {@link #conditions()}.
+     *
+     * @return Conditions or <code>null</code>.
+     */
+    @ToString.Include
+    public List<List<Map<?, ?>>> getConditions() {
+        var maps = conditionMaps;
+        if (maps == null && conditions != null) {
+            maps = new ArrayList<>(conditions.size());
+            for (List<Condition> clause : conditions) {
+                List<Map<?, ?>> clauseMaps = new ArrayList<>(clause.size());
+                for (Condition condition : clause) {
+                    clauseMaps.add(readOnly ? Collections.unmodifiableMap(condition.toMap()) : condition.toMap());
+                }
+                maps.add(readOnly ? Collections.unmodifiableList(clauseMaps) : clauseMaps);
+            }
+            maps = readOnly ? Collections.unmodifiableList(maps) : maps;
+            conditionMaps = maps;
+        }
+        return maps;
+    }
+
+    public void setConditions(List<List<Map<?, ?>>> conditions) {
+        checkWritable();
+        this.conditions = conditions == null ? null : conditions.stream()
+                .map(clause -> clause.stream().map(Condition::fromMap).toList())
+                .toList();
+        this.conditionMaps = conditions;
+    }
+
+    /**
+     * Returns conditions: list of alternatives, each being a list of conditions that all have to be met.
+     *
+     * @return Immutable list of conditions or <code>null</code>.
+     */
+    public List<List<Condition>> conditions() {
+        return conditions;
+    }
+
+    /**
+     * Sets conditions: list of alternatives, each being a list of conditions that all have to be met.
+     *
+     * @param conditions Conditions or <code>null</code>.
+     */
+    public void conditions(List<List<Condition>> conditions) {
+        checkWritable();
+        this.conditions = conditions == null ? null : conditions.stream().map(List::copyOf).toList();
+        this.conditionMaps = null;
+    }
+
+    @ToString.Include
+    public String getBy() {
+        return byValue != null ? byValue.value() : customBy;
+    }
+
+    public void setBy(String by) {
+        checkWritable();
+        this.byValue = ByValue.fromValue(by);
+        this.customBy = byValue == null ? StringPool.intern(by) : null;
+    }
+
+    /**
+     * Returns standard "by" value.
+     *
+     * @return <code>ByValue</code> or <code>null</code> if absent or not standard.
+     */
+    public ByValue byValue() {
+        return byValue;
+    }
+
+    /**
+     * Returns read-only copy of this visa, sharing its immutable field values.
+     *
+     * @return This visa if it is read-only already, or its read-only copy.
+     */
+    public Visa readOnlyCopy() {
+        if (readOnly) {
+            return this;
+        }
+        var copy = new Visa();
+        copy.sub = sub;
+        copy.exp = exp;
+        copy.visaType = visaType;
+        copy.customType = customType;
+        copy.asserted = asserted;
+        copy.value = value;
+        copy.source = source;
+        copy.conditions = conditions;
+        copy.byValue = byValue;
+        copy.customBy = customBy;
+        copy.readOnly = true;
+        return copy;
+    }
+
+    /**
+     * Tells whether setters of this visa are disabled.
+     *
+     * @return <code>true</code> for read-only visas.
+     */
+    public boolean isReadOnly() {
+        return readOnly;
+    }
 
-    private String by;                          // by identifier
+    private void checkWritable() {
+        if (readOnly) {
+            throw new UnsupportedOperationException("Visa is read-only");
+        }
+    }
 
 }
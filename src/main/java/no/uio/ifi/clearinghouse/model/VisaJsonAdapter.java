@@ -0,0 +1,130 @@
+package no.uio.ifi.clearinghouse.model;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Gson adapter reading and writing <code>Visa</code> in its standard JSON representation through its accessors,
+ * so that the compact internal representation never leaks into JSON.
+ */
+final class VisaJsonAdapter extends TypeAdapter<Visa> {
+
+    private static final String SUB = "sub";
+    private static final String EXP = "exp";
+    private static final String TYPE = "type";
+    private static final String ASSERTED = "asserted";
+    private static final String VALUE = "value";
+    private static final String SOURCE = "source";
+    private static final String CONDITIONS = "conditions";
+    private static final String BY = "by";
+
+    @Override
+    public void write(JsonWriter out, Visa visa) throws IOException {
+        if (visa == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name(SUB).value(visa.getSub());
+        out.name(EXP).value(visa.getExp());
+        out.name(TYPE).value(visa.getType());
+        out.name(ASSERTED).value(visa.getAsserted());
+        out.name(VALUE).value(visa.getValue());
+        out.name(SOURCE).value(visa.getSource());
+        if (visa.conditions() != null) {
+            out.name(CONDITIONS).beginArray();
+            for (List<Condition> clause : visa.conditions()) {
+                out.beginArray();
+                for (Condition condition : clause) {
+                    out.beginObject();
+                    out.name(TYPE).value(condition.type());
+                    out.name(VALUE).value(condition.value());
+                    out.name(SOURCE).value(condition.source());
+                    out.name(BY).value(condition.by());
+                    out.endObject();
+                }
+                out.endArray();
+            }
+            out.endArray();
+        }
+        out.name(BY).value(visa.getBy());
+        out.endObject();
+    }
+
+    @Override
+    public Visa read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        var visa = new Visa();
+        in.beginObject();
+        while (in.hasNext()) {
+            var name = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                continue;
+            }
+            switch (name) {
+                case SUB -> visa.setSub(in.nextString());
+                case EXP -> visa.setExp(in.nextLong());
+                case TYPE -> visa.setType(in.nextString());
+                case ASSERTED -> visa.setAsserted(in.nextLong());
+                case VALUE -> visa.setValue(in.nextString());
+                case SOURCE -> visa.setSource(in.nextString());
+                case CONDITIONS -> visa.conditions(readConditions(in));
+                case BY -> visa.setBy(in.nextString());
+                default -> in.skipValue();
+            }
+        }
+        in.endObject();
+        return visa;
+    }
+
+    private static List<List<Condition>> readConditions(JsonReader in) throws IOException {
+        List<List<Condition>> conditions = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            List<Condition> clause = new ArrayList<>();
+            in.beginArray();
+            while (in.hasNext()) {
+                clause.add(readCondition(in));
+            }
+            in.endArray();
+            conditions.add(clause);
+        }
+        in.endArray();
+        return conditions;
+    }
+
+    private static Condition readCondition(JsonReader in) throws IOException {
+        String type = null;
+        String value = null;
+        String source = null;
+        String by = null;
+        in.beginObject();
+        while (in.hasNext()) {
+            var name = in.nextName();
+            if (in.peek() != JsonToken.STRING && in.peek() != JsonToken.NUMBER) {
+                in.skipValue();
+                continue;
+            }
+            switch (name) {
+                case TYPE -> type = in.nextString();
+                case VALUE -> value = in.nextString();
+                case SOURCE -> source = in.nextString();
+                case BY -> by = in.nextString();
+                default -> in.skipValue();
+            }
+        }
+        in.endObject();
+        return new Condition(type, value, source, by);
+    }
+
+}
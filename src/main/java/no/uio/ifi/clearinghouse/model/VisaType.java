@@ -9,6 +9,21 @@ public enum VisaType {
     AcceptedTermsAndPolicies,
     ResearcherStatus,
     ControlledAccessGrants,
-    LinkedIdentities
+    LinkedIdentities;
+
+    /**
+     * Looks up the enum constant by its name, without throwing for custom visa types.
+     *
+     * @param name Value of "type" property.
+     * @return <code>VisaType</code> constant or <code>null</code> if the type is not a standard one.
+     */
+    public static VisaType fromName(String name) {
+        for (VisaType visaType : values()) {
+            if (visaType.name().equals(name)) {
+                return visaType;
+            }
+        }
+        return null;
+    }
 
 }
@@ -0,0 +1,46 @@
+package no.uio.ifi.clearinghouse;
+
+import io.jsonwebtoken.io.DeserializationException;
+import no.uio.ifi.clearinghouse.model.ByValue;
+import no.uio.ifi.clearinghouse.model.Visa;
+import no.uio.ifi.clearinghouse.model.VisaType;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+import java.util.List;
+import java.util.Map;
+
+public class ClaimsDeserializerTests {
+
+    @Test
+    public void visaClaimIsDecodedDirectlyTest() {
+        Map<String, ?> claims = ClaimsDeserializer.INSTANCE.deserialize(new StringReader("""
+                {"sub":"test@elixir-europe.org","exp":32503680000,"aud":["a","b"],
+                 "ga4gh_visa_v1":{"type":"AffiliationAndRole","asserted":1583757401,"value":"affiliate@google.com",
+                                  "source":"https://login.elixir-czech.org/google-idp/","by":"system"}}"""));
+        Assertions.assertEquals(32503680000L, claims.get("exp"));
+        Assertions.assertEquals(List.of("a", "b"), claims.get("aud"));
+        Visa visa = (Visa) claims.get("ga4gh_visa_v1");
+        Assertions.assertEquals(VisaType.AffiliationAndRole, visa.visaType());
+        Assertions.assertEquals(ByValue.SYSTEM, visa.byValue());
+        Assertions.assertEquals(1583757401L, visa.getAsserted());
+        Assertions.assertEquals("affiliate@google.com", visa.getValue());
+    }
+
+    @Test
+    public void incompleteVisaClaimIsDecodedTest() {
+        Map<String, ?> claims = ClaimsDeserializer.INSTANCE.deserialize(new StringReader("""
+                {"ga4gh_visa_v1":{"type":"AffiliationAndRole","asserted":1583757401,
+                                  "source":"https://login.elixir-czech.org/google-idp/"}}"""));
+        Visa visa = (Visa) claims.get("ga4gh_visa_v1");
+        Assertions.assertEquals(VisaType.AffiliationAndRole, visa.visaType());
+        Assertions.assertNull(visa.getValue());
+    }
+
+    @Test
+    public void trailingContentIsRejectedTest() {
+        Assertions.assertThrows(DeserializationException.class, () -> ClaimsDeserializer.INSTANCE.deserialize(new StringReader("{} {}")));
+    }
+
+}
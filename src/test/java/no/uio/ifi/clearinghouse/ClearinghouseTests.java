@@ -1,6 +1,10 @@
 package no.uio.ifi.clearinghouse;
 
+import io.jsonwebtoken.Jwts;
 import lombok.SneakyThrows;
+import no.uio.ifi.clearinghouse.instrumentation.Failure;
+import no.uio.ifi.clearinghouse.instrumentation.Instrumentation;
+import no.uio.ifi.clearinghouse.instrumentation.Stage;
 import no.uio.ifi.clearinghouse.model.ByValue;
 import no.uio.ifi.clearinghouse.model.Visa;
 import no.uio.ifi.clearinghouse.model.VisaType;
@@ -13,12 +17,28 @@ import org.jetbrains.annotations.NotNull;
 import org.junit.jupiter.api.*;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.KeyPairGenerator;
 import java.security.interfaces.RSAPublicKey;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 
 public class ClearinghouseTests {
@@ -99,6 +119,30 @@ public class ClearinghouseTests {
         Assertions.assertEquals(ByValue.SYSTEM.name().toLowerCase(), visa.getBy());
     }
 
+    @SneakyThrows
+    @Test
+    public void getVisasInParallelTest() {
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            Collection<Visa> visas = Clearinghouse.INSTANCE.getVisas(List.of(visaToken, "invalid", visaToken), executor);
+            Assertions.assertEquals(2, visas.size());
+            for (Visa visa : visas) {
+                Assertions.assertEquals("test@elixir-europe.org", visa.getSub());
+                Assertions.assertEquals("affiliate@google.com", visa.getValue());
+            }
+        }
+    }
+
+    @SneakyThrows
+    @Test
+    public void getVisasAsyncTest() {
+        Collection<Visa> visas = Clearinghouse.INSTANCE.getVisasAsync(accessToken, oidcConfigEndpoint.toString()).get();
+        Assertions.assertEquals(1, visas.size());
+        Visa visa = visas.iterator().next();
+        Assertions.assertEquals("test@elixir-europe.org", visa.getSub());
+        Assertions.assertEquals(VisaType.AffiliationAndRole.name(), visa.getType());
+        Assertions.assertEquals("affiliate@google.com", visa.getValue());
+    }
+
     @SneakyThrows
     @Test
     public void getVisasWithPEMPublicKeyTestTest() {
@@ -129,6 +173,382 @@ public class ClearinghouseTests {
         Assertions.assertEquals(ByValue.SYSTEM.name().toLowerCase(), visa.getBy());
     }
 
+    @SneakyThrows
+    @Test
+    public void getVisaWithCacheTest() {
+        VisaCache visaCache = new VisaCache(100, Duration.ofMinutes(5));
+        Clearinghouse clearinghouse = Clearinghouse.builder()
+                .visaCache(visaCache)
+                .build();
+        Optional<Visa> first = clearinghouse.getVisa(visaToken);
+        Optional<Visa> second = clearinghouse.getVisa(visaToken);
+        Assertions.assertTrue(first.isPresent());
+        Assertions.assertSame(first.get(), second.orElseThrow());
+        Assertions.assertEquals(Long.valueOf(32503680000L), first.get().getExp());
+        Assertions.assertTrue(first.get().isReadOnly());
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> first.get().setValue("forged"));
+        Clearinghouse restricted = Clearinghouse.builder()
+                .visaCache(visaCache)
+                .trustedIssuers(List.of("https://other.example.org/"))
+                .build();
+        Assertions.assertTrue(restricted.getVisa(visaToken).isEmpty());
+        Assertions.assertTrue(restricted.getVisaAsync(visaToken).get().isEmpty());
+    }
+
+    @SneakyThrows
+    @Test
+    public void getVisaTokensWithPassportCacheTest() {
+        Clearinghouse clearinghouse = Clearinghouse.builder()
+                .passportCache(new PassportCache(100, Duration.ofMinutes(5), Duration.ofMinutes(1)))
+                .build();
+        RSAPublicKey publicKey = (RSAPublicKey) credentialsProvider.getPublicKey();
+        Collection<String> first = clearinghouse.getVisaTokensWithPublicKey(accessToken, publicKey);
+        Collection<String> second = clearinghouse.getVisaTokensWithPublicKey(accessToken, publicKey);
+        Assertions.assertEquals(1, first.size());
+        Assertions.assertEquals(first, second);
+        Assertions.assertEquals(1, mockWebServer.getRequestCount());
+        Collection<String> opaque = clearinghouse.getVisaTokensFromOpaqueToken("opaque", userInfoEndpoint.toString());
+        Assertions.assertEquals(opaque, clearinghouse.getVisaTokensFromOpaqueTokenAsync("opaque", userInfoEndpoint.toString()).get());
+        Assertions.assertEquals(2, mockWebServer.getRequestCount());
+        Assertions.assertEquals(1, clearinghouse.getVisaTokensFromOpaqueToken(accessToken, userInfoEndpoint.toString()).size());
+        Assertions.assertEquals(3, mockWebServer.getRequestCount());
+    }
+
+    @SneakyThrows
+    @Test
+    public void cachedPassportRequiresValidAccessTokenTest() {
+        Clearinghouse clearinghouse = Clearinghouse.builder()
+                .passportCache(new PassportCache(100, Duration.ofMinutes(5), Duration.ofMinutes(1)))
+                .build();
+        RSAPublicKey publicKey = (RSAPublicKey) credentialsProvider.getPublicKey();
+        Assertions.assertEquals(1, clearinghouse.getVisaTokensWithPublicKey(accessToken, publicKey).size());
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        RSAPublicKey otherKey = (RSAPublicKey) generator.generateKeyPair().getPublic();
+        Assertions.assertTrue(clearinghouse.getVisaTokensWithPublicKey(accessToken, otherKey).isEmpty());
+        Assertions.assertTrue(clearinghouse.getVisaTokensWithPublicKeyAsync(accessToken, otherKey).get().isEmpty());
+        Assertions.assertEquals(1, mockWebServer.getRequestCount());
+    }
+
+    @SneakyThrows
+    @Test
+    public void concurrentUserInfoRequestsAreCoalescedTest() {
+        MockResponse passportResponse = new MockResponse().setResponseCode(200)
+                .setBody(credentialsProvider.getPassportJsonString())
+                .setBodyDelay(200, TimeUnit.MILLISECONDS);
+        mockWebServer.setDispatcher(new Dispatcher() {
+            @NotNull
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return passportResponse;
+            }
+        });
+        Clearinghouse clearinghouse = Clearinghouse.builder().build();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<Collection<String>>> passports = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                passports.add(executor.submit(() -> clearinghouse.getVisaTokensFromOpaqueToken("opaque", userInfoEndpoint.toString())));
+            }
+            passports.add(executor.submit(() -> clearinghouse.getVisaTokensFromOpaqueTokenAsync("opaque", userInfoEndpoint.toString()).get()));
+            for (Future<Collection<String>> passport : passports) {
+                Assertions.assertEquals(1, passport.get().size());
+            }
+        }
+        Assertions.assertEquals(1, mockWebServer.getRequestCount());
+        clearinghouse.getVisaTokensFromOpaqueToken("another", userInfoEndpoint.toString());
+        Assertions.assertEquals(2, mockWebServer.getRequestCount());
+    }
+
+    @SneakyThrows
+    @Test
+    public void prewarmAndSnapshotTest(@TempDir Path directory) {
+        Clearinghouse clearinghouse = Clearinghouse.builder().httpClientConfig(HttpClientConfig.builder().build()).build();
+        Assertions.assertEquals(1, clearinghouse.prewarm(List.of(mockWebServer.url("/jwk").toString())));
+        Assertions.assertTrue(clearinghouse.getVisa(visaToken).isPresent());
+        Assertions.assertEquals(1, mockWebServer.getRequestCount());
+
+        Path snapshot = directory.resolve("snapshot.json");
+        clearinghouse.saveSnapshot(snapshot);
+        mockWebServer.setDispatcher(new Dispatcher() {
+            @NotNull
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().setResponseCode(503);
+            }
+        });
+        Clearinghouse restarted = Clearinghouse.builder().httpClientConfig(HttpClientConfig.builder().build()).build();
+        Assertions.assertEquals(1, restarted.loadSnapshot(snapshot));
+        Assertions.assertTrue(restarted.getVisa(visaToken).isPresent());
+    }
+
+    @SneakyThrows
+    @Test
+    public void batchValidationTest() {
+        String input = String.join("\n", visaToken, "junk", "", "\"" + visaToken + "\"",
+                credentialsProvider.getPassportJsonString().replaceAll("\\s+", ""), "{");
+        List<BatchValidator.Result> results = new ArrayList<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(2)) {
+            BatchValidator validator = new BatchValidator(Clearinghouse.INSTANCE, executor, 2);
+            BatchValidator.Summary summary = validator.validate(new StringReader(input), results::add);
+            Assertions.assertEquals(5, summary.total());
+            Assertions.assertEquals(3, summary.valid());
+        }
+        Assertions.assertEquals(List.of(1L, 2L, 4L, 5L, 6L), results.stream().map(BatchValidator.Result::line).toList());
+        Assertions.assertEquals("affiliate@google.com", results.get(0).visa().getValue());
+        Assertions.assertEquals(Failure.MALFORMED, results.get(1).failure());
+        Assertions.assertTrue(results.get(2).isValid());
+        Assertions.assertTrue(results.get(3).isValid());
+        Assertions.assertEquals(Failure.MALFORMED, results.get(4).failure());
+    }
+
+    @SneakyThrows
+    @Test
+    public void batchValidationReportsFetchFailuresTest() {
+        mockWebServer.setDispatcher(new Dispatcher() {
+            @NotNull
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().setResponseCode(503);
+            }
+        });
+        Clearinghouse clearinghouse = Clearinghouse.builder().httpClientConfig(HttpClientConfig.builder().build()).build();
+        List<BatchValidator.Result> results = new ArrayList<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(2)) {
+            new BatchValidator(clearinghouse, executor, 2).validate(new StringReader(visaToken), results::add);
+        }
+        Assertions.assertEquals(Failure.KEY_FETCH_FAILED, results.get(0).failure());
+    }
+
+    @SneakyThrows
+    @Test
+    public void getVisasWithFilterTest() {
+        Clearinghouse clearinghouse = Clearinghouse.builder().httpClientConfig(HttpClientConfig.builder().build()).build();
+        Assertions.assertTrue(clearinghouse.getVisasMatching(List.of(visaToken), p -> p.isVisaType(VisaType.ControlledAccessGrants)).isEmpty());
+        Assertions.assertEquals(0, mockWebServer.getRequestCount());
+        Collection<Visa> visas = clearinghouse.getVisasMatching(List.of(visaToken, visaToken),
+                p -> p.isVisaType(VisaType.AffiliationAndRole) && "https://login.elixir-czech.org/google-idp/".equals(p.getSource()),
+                Runnable::run);
+        Assertions.assertEquals(2, visas.size());
+        Assertions.assertEquals("affiliate@google.com", visas.iterator().next().getValue());
+    }
+
+    @SneakyThrows
+    @Test
+    public void anyVisaMatchesTest() {
+        Clearinghouse clearinghouse = Clearinghouse.builder().httpClientConfig(HttpClientConfig.builder().build()).build();
+        var order = TokenPreview.likelyFirst(p -> "affiliate@google.com".equals(p.getValue()));
+        Assertions.assertTrue(clearinghouse.anyVisaMatches(List.of("junk", visaToken), v -> "affiliate@google.com".equals(v.getValue()), order));
+        Assertions.assertFalse(clearinghouse.anyVisaMatches(List.of(visaToken), v -> v.visaType() == VisaType.ControlledAccessGrants, null));
+        Assertions.assertEquals(1, clearinghouse.streamVisas(List.of(visaToken, visaToken, visaToken), null).limit(1).count());
+    }
+
+    @SneakyThrows
+    @Test
+    public void publishVisasTest() {
+        Clearinghouse clearinghouse = Clearinghouse.builder().httpClientConfig(HttpClientConfig.builder().build()).build();
+        List<Visa> received = new CopyOnWriteArrayList<>();
+        CompletableFuture<Boolean> completed = new CompletableFuture<>();
+        clearinghouse.publishVisas(List.of(visaToken, visaToken, visaToken), null, Runnable::run).subscribe(new Flow.Subscriber<>() {
+
+            private Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(Visa visa) {
+                received.add(visa);
+                subscription.cancel();
+                completed.complete(false);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                completed.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                completed.complete(true);
+            }
+
+        });
+        Assertions.assertFalse(completed.get(10, TimeUnit.SECONDS));
+        Assertions.assertEquals(1, received.size());
+        Assertions.assertEquals("affiliate@google.com", received.get(0).getValue());
+    }
+
+    @SneakyThrows
+    @Test
+    public void publishVisasCompletesWithoutOutstandingDemandTest() {
+        Clearinghouse clearinghouse = Clearinghouse.builder().httpClientConfig(HttpClientConfig.builder().build()).build();
+        List<Visa> received = new CopyOnWriteArrayList<>();
+        CompletableFuture<Boolean> completed = new CompletableFuture<>();
+        clearinghouse.publishVisas(List.of(visaToken, "invalid", visaToken), null, Runnable::run).subscribe(new Flow.Subscriber<>() {
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(2);
+            }
+
+            @Override
+            public void onNext(Visa visa) {
+                received.add(visa);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                completed.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                completed.complete(true);
+            }
+
+        });
+        Assertions.assertTrue(completed.get(10, TimeUnit.SECONDS));
+        Assertions.assertEquals(2, received.size());
+    }
+
+    @SneakyThrows
+    @Test
+    public void issuerRegistryTest() {
+        String issuer = mockWebServer.url("/").toString();
+        Clearinghouse untrustedJKU = Clearinghouse.builder()
+                .issuer(IssuerConfig.builder().issuer(issuer).jku("https://example.org/jwk").build())
+                .build();
+        Assertions.assertTrue(untrustedJKU.getVisa(visaToken).isEmpty());
+        Assertions.assertEquals(0, mockWebServer.getRequestCount());
+        Assertions.assertEquals(1, untrustedJKU.getIssuerStats(issuer).orElseThrow().failures().get(Failure.UNTRUSTED_JKU));
+
+        Clearinghouse clearinghouse = Clearinghouse.builder()
+                .issuer(IssuerConfig.builder().issuer(issuer).jku(mockWebServer.url("/jwk").toString()).maxConcurrentRequests(1).build())
+                .build();
+        Assertions.assertEquals("affiliate@google.com", clearinghouse.getVisa(visaToken).orElseThrow().getValue());
+        var stats = clearinghouse.getIssuerStats(issuer).orElseThrow();
+        Assertions.assertEquals(0, stats.rejectedRequests());
+        Assertions.assertEquals(0, stats.activeRequests());
+        Assertions.assertTrue(stats.failures().values().stream().allMatch(count -> count == 0));
+        Assertions.assertTrue(clearinghouse.getIssuerStats("https://example.org/").isEmpty());
+    }
+
+    @SneakyThrows
+    @Test
+    public void slowIssuerDoesNotBlockOtherIssuersTest() {
+        MockResponse passportResponse = new MockResponse().setResponseCode(200).setBody(credentialsProvider.getPassportJsonString());
+        MockResponse slowPassportResponse = new MockResponse().setResponseCode(200).setBody(credentialsProvider.getPassportJsonString())
+                .setHeadersDelay(1, TimeUnit.SECONDS);
+        mockWebServer.setDispatcher(new Dispatcher() {
+            @NotNull
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return "/slow/userinfo".equals(request.getPath()) ? slowPassportResponse : passportResponse;
+            }
+        });
+        String slowIssuer = mockWebServer.url("/slow/").toString();
+        Clearinghouse clearinghouse = Clearinghouse.builder()
+                .issuer(IssuerConfig.builder().issuer(slowIssuer).jku(slowIssuer + "jwk").maxConcurrentRequests(2).build())
+                .issuer(IssuerConfig.builder().issuer(mockWebServer.url("/").toString()).jku(mockWebServer.url("/jwk").toString()).build())
+                .build();
+        List<CompletableFuture<Collection<String>>> slow = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            slow.add(clearinghouse.getVisaTokensFromOpaqueTokenAsync("slow" + i, slowIssuer + "userinfo"));
+        }
+        long start = System.nanoTime();
+        Assertions.assertEquals(1, clearinghouse.getVisaTokensFromOpaqueToken("fast", userInfoEndpoint.toString()).size());
+        Assertions.assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+        long completed = slow.stream().map(future -> future.handle((passport, e) -> e == null).join()).filter(Boolean::booleanValue).count();
+        Assertions.assertEquals(2, completed);
+        Assertions.assertEquals(8, clearinghouse.getIssuerStats(slowIssuer).orElseThrow().rejectedRequests());
+    }
+
+    @SneakyThrows
+    @Test
+    public void getVisaRejectsMalformedTokenTest() {
+        Assertions.assertTrue(Clearinghouse.INSTANCE.getVisa("junk").isEmpty());
+        Assertions.assertTrue(Clearinghouse.INSTANCE.getVisa("e30.e30.").isEmpty());
+        Assertions.assertEquals(0, mockWebServer.getRequestCount());
+    }
+
+    @SneakyThrows
+    @Test
+    public void getVisaRejectsUntrustedIssuerTest() {
+        Clearinghouse clearinghouse = Clearinghouse.builder()
+                .trustedIssuers(List.of("https://login.elixir-czech.org/oidc/"))
+                .build();
+        Assertions.assertTrue(clearinghouse.getVisa(visaToken).isEmpty());
+        Assertions.assertEquals(0, mockWebServer.getRequestCount());
+    }
+
+    @SneakyThrows
+    @Test
+    public void instrumentationTest() {
+        List<Stage> stages = new CopyOnWriteArrayList<>();
+        List<Failure> failures = new CopyOnWriteArrayList<>();
+        Clearinghouse clearinghouse = Clearinghouse.builder().instrumentation(new Instrumentation() {
+            @Override
+            public Timer start(Stage stage, String target) {
+                return success -> stages.add(stage);
+            }
+
+            @Override
+            public void validationFailure(String issuer, Failure failure) {
+                failures.add(failure);
+            }
+        }).build();
+        RSAPublicKey publicKey = (RSAPublicKey) credentialsProvider.getPublicKey();
+        Assertions.assertTrue(clearinghouse.getVisaWithPublicKey(visaToken, publicKey).isPresent());
+        Assertions.assertTrue(clearinghouse.getVisa("junk").isEmpty());
+        Assertions.assertEquals(List.of(Stage.SIGNATURE_VERIFY, Stage.CLAIMS_DECODE), stages);
+        Assertions.assertEquals(List.of(Failure.MALFORMED), failures);
+    }
+
+    @SneakyThrows
+    @Test
+    public void failureReasonsTest() {
+        List<Failure> failures = new CopyOnWriteArrayList<>();
+        Clearinghouse clearinghouse = Clearinghouse.builder().instrumentation(new Instrumentation() {
+            @Override
+            public void validationFailure(String issuer, Failure failure) {
+                failures.add(failure);
+            }
+        }).build();
+        String[] parts = visaToken.split("\\.");
+        String signature = (parts[2].charAt(0) == 'A' ? "B" : "A") + parts[2].substring(1);
+        String payload = Base64.getUrlEncoder().withoutPadding().encodeToString("not json".getBytes(StandardCharsets.UTF_8));
+        RSAPublicKey publicKey = (RSAPublicKey) credentialsProvider.getPublicKey();
+        Assertions.assertTrue(clearinghouse.getVisa(parts[0] + "." + parts[1] + "." + signature).isEmpty());
+        Assertions.assertTrue(clearinghouse.getVisaWithPublicKey(parts[0] + "." + payload + "." + parts[2], publicKey).isEmpty());
+        Assertions.assertEquals(List.of(Failure.INVALID_SIGNATURE, Failure.MALFORMED), failures);
+    }
+
+    @SneakyThrows
+    @Test
+    public void incompleteVisaIsCheckedAfterSignatureTest() {
+        List<Failure> failures = new CopyOnWriteArrayList<>();
+        Clearinghouse clearinghouse = Clearinghouse.builder().instrumentation(new Instrumentation() {
+            @Override
+            public void validationFailure(String issuer, Failure failure) {
+                failures.add(failure);
+            }
+        }).build();
+        String incomplete = Jwts.builder()
+                .signWith(credentialsProvider.getPrivateKey(), Jwts.SIG.RS256)
+                .subject("test@elixir-europe.org")
+                .claim("ga4gh_visa_v1", Map.of("type", "AffiliationAndRole", "asserted", 1583757401L))
+                .compact();
+        String[] parts = incomplete.split("\\.");
+        String forged = parts[0] + "." + parts[1] + "." + visaToken.split("\\.")[2];
+        RSAPublicKey publicKey = (RSAPublicKey) credentialsProvider.getPublicKey();
+        Assertions.assertTrue(clearinghouse.getVisaWithPublicKey(forged, publicKey).isEmpty());
+        Assertions.assertTrue(clearinghouse.getVisaWithPublicKey(incomplete, publicKey).isEmpty());
+        Assertions.assertEquals(List.of(Failure.INVALID_SIGNATURE, Failure.INVALID_CLAIMS), failures);
+    }
+
     @SneakyThrows
     @Test
     public void getVisaWithPEMPublicKeyTest() {
@@ -168,6 +588,14 @@ public class ClearinghouseTests {
         Assertions.assertEquals(visaToken, visaTokens.iterator().next());
     }
 
+    @SneakyThrows
+    @Test
+    public void getVisaTokensFromOpaqueTokenAsyncTest() {
+        Collection<String> visaTokens = Clearinghouse.INSTANCE.getVisaTokensFromOpaqueTokenAsync(accessToken, userInfoEndpoint.toString()).get();
+        Assertions.assertEquals(1, visaTokens.size());
+        Assertions.assertEquals(visaToken, visaTokens.iterator().next());
+    }
+
     @Test
     public void getVisaTokensWithPublicKeyTest() {
         RSAPublicKey publicKey = (RSAPublicKey) credentialsProvider.getPublicKey();
@@ -175,6 +603,36 @@ public class ClearinghouseTests {
         Assertions.assertEquals(visaToken, visaTokens.iterator().next());
     }
 
+    @Test
+    public void userInfoErrorResponseTest() {
+        mockWebServer.setDispatcher(userInfoDispatcher(new MockResponse().setResponseCode(500).setBody("{\"error\": \"server_error\"}")));
+        RSAPublicKey publicKey = (RSAPublicKey) credentialsProvider.getPublicKey();
+        Clearinghouse clearinghouse = Clearinghouse.builder().build();
+        Assertions.assertTrue(clearinghouse.getVisaTokensWithPublicKey(accessToken, publicKey).isEmpty());
+        Assertions.assertTrue(clearinghouse.getVisaTokens(accessToken, oidcConfigEndpoint.toString()).isEmpty());
+    }
+
+    @Test
+    public void malformedUserInfoResponseTest() {
+        mockWebServer.setDispatcher(userInfoDispatcher(new MockResponse().setBody("{\"ga4gh_passport_v1\": [")));
+        RSAPublicKey publicKey = (RSAPublicKey) credentialsProvider.getPublicKey();
+        Clearinghouse clearinghouse = Clearinghouse.builder().build();
+        Assertions.assertTrue(clearinghouse.getVisaTokensWithPublicKey(accessToken, publicKey).isEmpty());
+        mockWebServer.setDispatcher(userInfoDispatcher(new MockResponse().setBody("{\"sub\": \"test@elixir-europe.org\"}")));
+        Assertions.assertTrue(clearinghouse.getVisaTokensWithPublicKey(accessToken, publicKey).isEmpty());
+    }
+
+    private Dispatcher userInfoDispatcher(MockResponse userInfoResponse) {
+        var delegate = mockWebServer.getDispatcher();
+        return new Dispatcher() {
+            @NotNull
+            @Override
+            public MockResponse dispatch(@NotNull RecordedRequest request) throws InterruptedException {
+                return "/userinfo".equals(request.getPath()) ? userInfoResponse : delegate.dispatch(request);
+            }
+        };
+    }
+
     @Test
     public void getVisaWithPublicKeyTest() {
         RSAPublicKey publicKey = (RSAPublicKey) credentialsProvider.getPublicKey();
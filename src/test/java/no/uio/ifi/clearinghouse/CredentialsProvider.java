@@ -54,6 +54,10 @@ public class CredentialsProvider {
     }
 
     private String createVisaToken(String url) {
+        return createVisaToken(url, "rsa1");
+    }
+
+    public String createVisaToken(String url, String keyId) {
         Visa visa = new Visa();
         visa.setBy("system");
         visa.setType("AffiliationAndRole");
@@ -62,7 +66,7 @@ public class CredentialsProvider {
         visa.setValue("affiliate@google.com");
 
         SignatureAlgorithm alg = Jwts.SIG.RS512;
-        return Jwts.builder().header().keyId("rsa1").type("JWT").add("jku", url + "jwk").add("alg", "RS256").and()
+        return Jwts.builder().header().keyId(keyId).type("JWT").add("jku", url + "jwk").add("alg", "RS256").and()
                 .signWith(this.privateKey, alg)
                 .subject("test@elixir-europe.org")
                 .claim("ga4gh_visa_v1", visa)
@@ -131,6 +135,10 @@ public class CredentialsProvider {
                 "}";
     }
 
+    public PrivateKey getPrivateKey() {
+        return this.privateKey;
+    }
+
     public PublicKey getPublicKey() {
         return this.publicKey;
     }
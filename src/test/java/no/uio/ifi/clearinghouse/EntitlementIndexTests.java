@@ -0,0 +1,99 @@
+package no.uio.ifi.clearinghouse;
+
+import no.uio.ifi.clearinghouse.model.Condition;
+import no.uio.ifi.clearinghouse.model.Visa;
+import no.uio.ifi.clearinghouse.model.VisaType;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+
+public class EntitlementIndexTests {
+
+    private static final String SUBJECT = "test@elixir-europe.org";
+
+    @Test
+    public void entitlementsTest() {
+        long now = System.currentTimeMillis() / 1000;
+        Visa role = visa(VisaType.AffiliationAndRole, "faculty@uio.no", now + 3600, null);
+        Visa granted = visa(VisaType.ControlledAccessGrants, "EGAD01", now + 600, null);
+        Visa expired = visa(VisaType.ControlledAccessGrants, "EGAD02", now - 1, null);
+        Visa conditional = visa(VisaType.ControlledAccessGrants, "EGAD03", null, List.of(List.of(
+                new Condition(VisaType.ResearcherStatus.name(), null, null, null))));
+        Entitlements entitlements = Entitlements.of(SUBJECT, List.of(role, granted, expired, conditional));
+        Assertions.assertTrue(entitlements.isGranted("EGAD01"));
+        Assertions.assertFalse(entitlements.isGranted("EGAD02"));
+        Assertions.assertFalse(entitlements.isGranted("EGAD03"));
+        Assertions.assertEquals(Set.of("EGAD01"), entitlements.getDatasets());
+        Assertions.assertEquals(now + 600, entitlements.getEarliestExpiry());
+    }
+
+    @Test
+    public void expiredVisaDoesNotMeetConditionsTest() {
+        long now = System.currentTimeMillis() / 1000;
+        List<List<Condition>> conditions = List.of(List.of(
+                new Condition(VisaType.AffiliationAndRole.name(), "const:faculty@uio.no", null, null)));
+        Visa expiredRole = visa(VisaType.AffiliationAndRole, "faculty@uio.no", now - 1, null);
+        Visa conditional = visa(VisaType.ControlledAccessGrants, "EGAD01", now + 3600, conditions);
+        Entitlements entitlements = Entitlements.of(SUBJECT, List.of(expiredRole, conditional));
+        Assertions.assertFalse(entitlements.isGranted("EGAD01"));
+        Assertions.assertTrue(entitlements.getDatasets().isEmpty());
+    }
+
+    @Test
+    public void conditionalGrantExpiresWithConditionVisaTest() {
+        long now = System.currentTimeMillis() / 1000;
+        List<List<Condition>> conditions = List.of(List.of(
+                new Condition(VisaType.AffiliationAndRole.name(), "pattern:*@uio.no", null, null)));
+        Visa shortRole = visa(VisaType.AffiliationAndRole, "faculty@uio.no", now + 60, null);
+        Visa longerRole = visa(VisaType.AffiliationAndRole, "staff@uio.no", now + 600, null);
+        Visa conditional = visa(VisaType.ControlledAccessGrants, "EGAD01", now + 3600, conditions);
+        Visa unconditional = visa(VisaType.ControlledAccessGrants, "EGAD02", now + 3600, null);
+        Entitlements entitlements = Entitlements.of(SUBJECT, List.of(shortRole, longerRole, conditional, unconditional));
+        Assertions.assertTrue(entitlements.isGranted("EGAD01"));
+        Assertions.assertEquals(now + 600, entitlements.getEarliestExpiry());
+        entitlements = Entitlements.of(SUBJECT, List.of(shortRole, conditional, unconditional));
+        Assertions.assertEquals(now + 60, entitlements.getEarliestExpiry());
+    }
+
+    @Test
+    public void entitlementsAreRebuiltOnlyWhenPassportChangesTest() {
+        EntitlementIndex index = new EntitlementIndex(100, Duration.ofMinutes(5));
+        Visa granted = visa(VisaType.ControlledAccessGrants, "EGAD01", null, null);
+        Entitlements first = index.update(SUBJECT, List.of(granted));
+        Assertions.assertSame(first, index.update(SUBJECT, List.of(visa(VisaType.ControlledAccessGrants, "EGAD01", null, null))));
+        Assertions.assertTrue(index.isGranted(SUBJECT, "EGAD01"));
+        Assertions.assertFalse(index.isGranted("someone@else.org", "EGAD01"));
+
+        Entitlements second = index.update(SUBJECT, List.of(granted, visa(VisaType.ControlledAccessGrants, "EGAD02", null, null)));
+        Assertions.assertNotSame(first, second);
+        Assertions.assertTrue(index.isGranted(SUBJECT, "EGAD02"));
+    }
+
+    @Test
+    public void unchangedPassportIsNotFingerprintedTest() {
+        EntitlementIndex index = new EntitlementIndex(100, Duration.ofMinutes(5));
+        Visa granted = visa(VisaType.ControlledAccessGrants, "EGAD01", null, null);
+        Entitlements first = index.update(SUBJECT, List.of(granted));
+        granted.setSource("https://changed.org/");
+        Assertions.assertSame(first, index.update(SUBJECT, List.of(granted)));
+        Assertions.assertSame(first, index.update(SUBJECT, List.of(visa(VisaType.ControlledAccessGrants, "EGAD01", null, null))));
+        Assertions.assertNotSame(first, index.update(SUBJECT, List.of(visa(VisaType.ControlledAccessGrants, "EGAD02", null, null))));
+    }
+
+    private static Visa visa(VisaType type, String value, Long exp, List<List<Condition>> conditions) {
+        Visa visa = new Visa();
+        visa.setSub(SUBJECT);
+        visa.setExp(exp);
+        visa.setType(type.name());
+        visa.setAsserted(1583757401L);
+        visa.setValue(value);
+        visa.setSource("https://login.elixir-czech.org/google-idp/");
+        visa.setBy("dac");
+        visa.conditions(conditions);
+        return visa;
+    }
+
+}
@@ -0,0 +1,250 @@
+package no.uio.ifi.clearinghouse;
+
+import lombok.SneakyThrows;
+import no.uio.ifi.clearinghouse.instrumentation.Instrumentation;
+import no.uio.ifi.clearinghouse.instrumentation.Stage;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class HttpDocumentCacheTests {
+
+    private MockWebServer mockWebServer;
+    private HttpDocumentCache<String> cache;
+    private String url;
+
+    @SneakyThrows
+    @BeforeEach
+    public void init() {
+        mockWebServer = new MockWebServer();
+        mockWebServer.start();
+        url = mockWebServer.url("/document").toString();
+        cache = new HttpDocumentCache<>(new OkHttpClient(), Stage.DISCOVERY_FETCH, Instrumentation.NOOP, String::trim);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        mockWebServer.shutdown();
+    }
+
+    @SneakyThrows
+    @Test
+    public void freshDocumentIsServedFromCacheTest() {
+        mockWebServer.enqueue(new MockResponse().setBody("document").setHeader("Cache-Control", "max-age=60"));
+        Assertions.assertEquals("document", cache.get(url));
+        Assertions.assertEquals("document", cache.get(url));
+        Assertions.assertEquals(1, mockWebServer.getRequestCount());
+    }
+
+    @SneakyThrows
+    @Test
+    public void conditionalRevalidationTest() {
+        mockWebServer.enqueue(new MockResponse().setBody("document").setHeader("Cache-Control", "no-cache").setHeader("ETag", "\"v1\""));
+        mockWebServer.enqueue(new MockResponse().setResponseCode(304).setHeader("Cache-Control", "no-cache"));
+        Assertions.assertEquals("document", cache.get(url));
+        Assertions.assertEquals("document", cache.get(url));
+        mockWebServer.takeRequest(1, TimeUnit.SECONDS);
+        RecordedRequest revalidation = mockWebServer.takeRequest(1, TimeUnit.SECONDS);
+        Assertions.assertNotNull(revalidation);
+        Assertions.assertEquals("\"v1\"", revalidation.getHeader("If-None-Match"));
+    }
+
+    @SneakyThrows
+    @Test
+    public void staleDocumentIsServedWhileRevalidatingTest() {
+        mockWebServer.enqueue(new MockResponse().setBody("old").setHeader("Cache-Control", "max-age=0").setHeader("ETag", "\"v1\""));
+        mockWebServer.enqueue(new MockResponse().setBody("new").setHeader("Cache-Control", "max-age=60").setHeader("ETag", "\"v2\""));
+        Assertions.assertEquals("old", cache.get(url));
+        Assertions.assertEquals("old", cache.get(url));
+        RecordedRequest revalidation = null;
+        for (int i = 0; i < 2; i++) {
+            revalidation = mockWebServer.takeRequest(1, TimeUnit.SECONDS);
+        }
+        Assertions.assertNotNull(revalidation);
+        Assertions.assertEquals("\"v1\"", revalidation.getHeader("If-None-Match"));
+        for (int i = 0; i < 50 && !"new".equals(cache.get(url)); i++) {
+            Thread.sleep(20);
+        }
+        Assertions.assertEquals("new", cache.get(url));
+    }
+
+    @SneakyThrows
+    @Test
+    public void failedRevalidationIsBackedOffTest() {
+        mockWebServer.enqueue(new MockResponse().setBody("old").setHeader("Cache-Control", "max-age=0"));
+        mockWebServer.enqueue(new MockResponse().setResponseCode(503));
+        Assertions.assertEquals("old", cache.get(url));
+        Assertions.assertEquals("old", cache.get(url));
+        mockWebServer.takeRequest(1, TimeUnit.SECONDS);
+        Assertions.assertNotNull(mockWebServer.takeRequest(1, TimeUnit.SECONDS));
+        Thread.sleep(200);
+        for (int i = 0; i < 10; i++) {
+            Assertions.assertEquals("old", cache.get(url));
+        }
+        Thread.sleep(200);
+        Assertions.assertEquals(2, mockWebServer.getRequestCount());
+    }
+
+    @SneakyThrows
+    @Test
+    public void concurrentFetchesShareOneRequestTest() {
+        mockWebServer.enqueue(new MockResponse().setBody("document").setHeader("Cache-Control", "max-age=60")
+                .setBodyDelay(200, TimeUnit.MILLISECONDS));
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                results.add(executor.submit(() -> cache.get(url)));
+            }
+            for (Future<String> result : results) {
+                Assertions.assertEquals("document", result.get());
+            }
+        }
+        Assertions.assertEquals(1, mockWebServer.getRequestCount());
+    }
+
+    @SneakyThrows
+    @Test
+    public void openCircuitServesCachedDocumentTest() {
+        var client = HttpClientConfig.builder().circuitBreakerThreshold(1).build().createClient();
+        cache = new HttpDocumentCache<>(client, Stage.JWKS_FETCH, Instrumentation.NOOP, String::trim);
+        mockWebServer.enqueue(new MockResponse().setBody("document").setHeader("Cache-Control", "no-cache"));
+        mockWebServer.enqueue(new MockResponse().setResponseCode(503));
+        Assertions.assertEquals("document", cache.get(url));
+        Assertions.assertThrows(RuntimeException.class, () -> cache.refresh(url));
+        Assertions.assertEquals("document", cache.refresh(url));
+        Assertions.assertEquals("document", cache.refreshAsync(url).get(1, TimeUnit.SECONDS));
+        Assertions.assertEquals(2, mockWebServer.getRequestCount());
+    }
+
+    @SneakyThrows
+    @Test
+    public void halfOpenCircuitClosesOnlyOnSuccessTest() {
+        var client = HttpClientConfig.builder()
+                .circuitBreakerThreshold(1)
+                .circuitBreakerOpenDuration(Duration.ofMillis(100))
+                .build()
+                .createClient();
+        var request = new Request.Builder().url(url + "?query").header("Authorization", "Bearer token").build();
+        mockWebServer.enqueue(new MockResponse().setResponseCode(503));
+        mockWebServer.enqueue(new MockResponse().setResponseCode(401));
+        mockWebServer.enqueue(new MockResponse().setBody("document"));
+        mockWebServer.enqueue(new MockResponse().setBody("document"));
+        client.newCall(request).execute().close();
+        Assertions.assertThrows(CircuitBreaker.CircuitOpenException.class, () -> client.newCall(request).execute());
+        Thread.sleep(150);
+        try (var response = client.newCall(request).execute()) {
+            Assertions.assertEquals(401, response.code());
+        }
+        Assertions.assertThrows(CircuitBreaker.CircuitOpenException.class, () -> client.newCall(request).execute());
+        Thread.sleep(150);
+        try (var response = client.newCall(request).execute()) {
+            Assertions.assertEquals("document", response.body().string());
+        }
+        try (var response = client.newCall(request).execute()) {
+            Assertions.assertEquals(200, response.code());
+        }
+        Assertions.assertEquals(4, mockWebServer.getRequestCount());
+        for (int i = 0; i < 4; i++) {
+            Assertions.assertEquals("Bearer token", mockWebServer.takeRequest(1, TimeUnit.SECONDS).getHeader("Authorization"));
+        }
+    }
+
+    @SneakyThrows
+    @Test
+    public void slowRequestIsHedgedTest() {
+        var client = HttpClientConfig.builder().hedgingPercentile(0.9).build().createClient();
+        cache = new HttpDocumentCache<>(client, Stage.JWKS_FETCH, Instrumentation.NOOP, String::trim);
+        for (int i = 0; i < Hedging.MINIMUM_SAMPLES; i++) {
+            mockWebServer.enqueue(new MockResponse().setBody("document").setHeader("Cache-Control", "no-cache"));
+            Assertions.assertEquals("document", cache.refresh(url));
+        }
+        mockWebServer.enqueue(new MockResponse().setBody("slow").setHeadersDelay(5, TimeUnit.SECONDS));
+        mockWebServer.enqueue(new MockResponse().setBody("hedge"));
+        long start = System.nanoTime();
+        Assertions.assertEquals("hedge", cache.refresh(url));
+        Assertions.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+        Assertions.assertEquals(Hedging.MINIMUM_SAMPLES + 2, mockWebServer.getRequestCount());
+    }
+
+    @SneakyThrows
+    @Test
+    public void primaryFailureWhileHedgingTest() {
+        var client = HttpClientConfig.builder()
+                .hedgingPercentile(0.5)
+                .maxRequestsPerHost(1)
+                .readTimeout(Duration.ofMillis(500))
+                .build()
+                .createClient();
+        warmUp(client);
+        mockWebServer.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.NO_RESPONSE));
+        mockWebServer.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.NO_RESPONSE));
+        var failure = new CompletableFuture<IOException>();
+        client.newCall(new Request.Builder().url(url).build()).enqueue(new Callback() {
+            @Override
+            public void onResponse(@NotNull Call call, @NotNull Response response) {
+                response.close();
+                failure.complete(null);
+            }
+
+            @Override
+            public void onFailure(@NotNull Call call, @NotNull IOException e) {
+                failure.complete(e);
+            }
+        });
+        Assertions.assertNotNull(failure.get(3, TimeUnit.SECONDS));
+        Assertions.assertEquals(Hedging.MINIMUM_SAMPLES + 2, mockWebServer.getRequestCount());
+    }
+
+    @SneakyThrows
+    @Test
+    public void cancelledCallCancelsHedgeTest() {
+        var client = HttpClientConfig.builder().hedgingPercentile(0.5).build().createClient();
+        warmUp(client);
+        mockWebServer.enqueue(new MockResponse().setBody("slow").setHeadersDelay(5, TimeUnit.SECONDS));
+        mockWebServer.enqueue(new MockResponse().setBody("slow").setHeadersDelay(5, TimeUnit.SECONDS));
+        var call = client.newCall(new Request.Builder().url(url).build());
+        var executor = Executors.newSingleThreadScheduledExecutor();
+        try {
+            executor.schedule(call::cancel, 300, TimeUnit.MILLISECONDS);
+            long start = System.nanoTime();
+            Assertions.assertThrows(IOException.class, call::execute);
+            Assertions.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+            Assertions.assertEquals(Hedging.MINIMUM_SAMPLES + 2, mockWebServer.getRequestCount());
+            Assertions.assertEquals(0, client.dispatcher().runningCallsCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @SneakyThrows
+    private void warmUp(OkHttpClient client) {
+        for (int i = 0; i < Hedging.MINIMUM_SAMPLES; i++) {
+            mockWebServer.enqueue(new MockResponse().setBody("document"));
+            try (var response = client.newCall(new Request.Builder().url(url).build()).execute()) {
+                Assertions.assertEquals("document", response.body().string());
+            }
+        }
+    }
+
+}
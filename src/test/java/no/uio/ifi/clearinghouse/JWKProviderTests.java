@@ -0,0 +1,82 @@
+package no.uio.ifi.clearinghouse;
+
+import lombok.SneakyThrows;
+import no.uio.ifi.clearinghouse.instrumentation.Instrumentation;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+public class JWKProviderTests {
+
+    private MockWebServer mockWebServer;
+    private JWKProvider jwkProvider;
+    private String url;
+    private String jwks;
+
+    @SneakyThrows
+    @BeforeEach
+    public void init() {
+        mockWebServer = new MockWebServer();
+        mockWebServer.start();
+        url = mockWebServer.url("/jwk").toString();
+        jwks = Files.readString(Path.of("src/test/resources/jwk.json"));
+        jwkProvider = new JWKProvider(new OkHttpClient(), Duration.ofMillis(500), Instrumentation.NOOP);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        mockWebServer.shutdown();
+    }
+
+    private void enqueueJWKs() {
+        mockWebServer.enqueue(new MockResponse().setBody(jwks).setHeader("Cache-Control", "max-age=60"));
+    }
+
+    @Test
+    public void knownKeyIsServedFromCacheTest() {
+        enqueueJWKs();
+        Assertions.assertEquals("rsa1", jwkProvider.get(url, "rsa1").getId());
+        Assertions.assertEquals("rsa1", jwkProvider.get(url, "rsa1").getId());
+        Assertions.assertEquals("rsa1", jwkProvider.getAsync(url, "rsa1").join().getId());
+        Assertions.assertEquals(1, mockWebServer.getRequestCount());
+    }
+
+    @Test
+    public void unknownKeyOnColdCacheFetchesOnceTest() {
+        enqueueJWKs();
+        Assertions.assertThrows(RuntimeException.class, () -> jwkProvider.get(url, "rsa2"));
+        Assertions.assertEquals(1, mockWebServer.getRequestCount());
+    }
+
+    @Test
+    public void unknownKeyIsNegativelyCachedTest() {
+        enqueueJWKs();
+        enqueueJWKs();
+        jwkProvider.get(url, "rsa1");
+        Assertions.assertThrows(RuntimeException.class, () -> jwkProvider.get(url, "rsa2"));
+        Assertions.assertThrows(RuntimeException.class, () -> jwkProvider.get(url, "rsa2"));
+        Assertions.assertThrows(RuntimeException.class, () -> jwkProvider.getAsync(url, "rsa2").join());
+        Assertions.assertEquals(1, mockWebServer.getRequestCount());
+    }
+
+    @SneakyThrows
+    @Test
+    public void unknownKeysRefetchAtMostOncePerIntervalTest() {
+        enqueueJWKs();
+        enqueueJWKs();
+        jwkProvider.get(url, "rsa1");
+        Thread.sleep(600);
+        Assertions.assertThrows(RuntimeException.class, () -> jwkProvider.get(url, "rsa2"));
+        Assertions.assertThrows(RuntimeException.class, () -> jwkProvider.get(url, "rsa3"));
+        Assertions.assertEquals(2, mockWebServer.getRequestCount());
+    }
+
+}
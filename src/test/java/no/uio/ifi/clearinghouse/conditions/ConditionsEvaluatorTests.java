@@ -0,0 +1,92 @@
+package no.uio.ifi.clearinghouse.conditions;
+
+import no.uio.ifi.clearinghouse.model.Condition;
+import no.uio.ifi.clearinghouse.model.Visa;
+import no.uio.ifi.clearinghouse.model.VisaType;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+public class ConditionsEvaluatorTests {
+
+    private static final String SOURCE = "https://login.elixir-czech.org/google-idp/";
+
+    @Test
+    public void constConditionTest() {
+        Visa role = visa(VisaType.AffiliationAndRole, "faculty@uio.no", null);
+        Visa grant = visa(VisaType.ControlledAccessGrants, "https://ega.example.org/EGAD01", List.of(List.of(
+                new Condition(VisaType.AffiliationAndRole.name(), "const:faculty@uio.no", null, "const:system"))));
+        Assertions.assertEquals(List.of(role, grant), ConditionsEvaluator.filterSatisfied(List.of(role, grant)));
+        Assertions.assertTrue(ConditionsEvaluator.filterSatisfied(List.of(grant)).isEmpty());
+    }
+
+    @Test
+    public void patternConditionsTest() {
+        Visa role = visa(VisaType.AffiliationAndRole, "faculty@uio.no", null);
+        Visa linked = visa(VisaType.LinkedIdentities, "10001,https%3A%2F%2Fa.org;abc,https%3A%2F%2Fb.org", null);
+        Assertions.assertTrue(satisfied(List.of(role, linked),
+                new Condition(VisaType.AffiliationAndRole.name(), "pattern:*@uio.no", "pattern:https://login.*", null)));
+        Assertions.assertTrue(satisfied(List.of(role, linked),
+                new Condition(VisaType.AffiliationAndRole.name(), "pattern:facult?@*.no", null, null)));
+        Assertions.assertFalse(satisfied(List.of(role, linked),
+                new Condition(VisaType.AffiliationAndRole.name(), "pattern:student@*", null, null)));
+        Assertions.assertTrue(satisfied(List.of(role, linked),
+                new Condition(VisaType.LinkedIdentities.name(), "split_pattern:abc,*", null, null)));
+        Assertions.assertFalse(satisfied(List.of(role, linked),
+                new Condition(VisaType.LinkedIdentities.name(), "split_pattern:xyz,*", null, null)));
+    }
+
+    @Test
+    public void alternativesTest() {
+        Visa role = visa(VisaType.AffiliationAndRole, "faculty@uio.no", null);
+        Condition met = new Condition(VisaType.AffiliationAndRole.name(), "const:faculty@uio.no", null, null);
+        Condition unmet = new Condition(VisaType.ResearcherStatus.name(), null, null, null);
+        Assertions.assertTrue(satisfied(List.of(role), List.of(List.of(unmet), List.of(met))));
+        Assertions.assertFalse(satisfied(List.of(role), List.of(List.of(met, unmet))));
+        Assertions.assertFalse(satisfied(List.of(role), List.of(List.of())));
+    }
+
+    @Test
+    public void conditionalVisasDoNotSatisfyConditionsTest() {
+        Condition conditionOnRole = new Condition(VisaType.AffiliationAndRole.name(), null, null, null);
+        Condition conditionOnGrant = new Condition(VisaType.ControlledAccessGrants.name(), null, null, null);
+        Visa role = visa(VisaType.AffiliationAndRole, "faculty@uio.no", List.of(List.of(conditionOnGrant)));
+        Visa grant = visa(VisaType.ControlledAccessGrants, "https://ega.example.org/EGAD01", List.of(List.of(conditionOnRole)));
+        Assertions.assertTrue(ConditionsEvaluator.filterSatisfied(List.of(role, grant)).isEmpty());
+    }
+
+    @Test
+    public void expiredVisasDoNotSatisfyConditionsTest() {
+        long now = System.currentTimeMillis() / 1000;
+        Visa role = visa(VisaType.AffiliationAndRole, "faculty@uio.no", null);
+        role.setExp(now - 1);
+        Visa grant = visa(VisaType.ControlledAccessGrants, "https://ega.example.org/EGAD01", List.of(List.of(
+                new Condition(VisaType.AffiliationAndRole.name(), "const:faculty@uio.no", null, null))));
+        Assertions.assertEquals(List.of(role), ConditionsEvaluator.filterSatisfied(List.of(role, grant)));
+        role.setExp(now + 60);
+        Assertions.assertEquals(now + 60, ConditionsEvaluator.satisfiedUntil(grant, PassportIndex.of(List.of(role))));
+        Assertions.assertEquals(CompiledConditions.NO_EXPIRY, ConditionsEvaluator.satisfiedUntil(role, PassportIndex.of(List.of(role))));
+    }
+
+    private static boolean satisfied(List<Visa> passport, Condition condition) {
+        return satisfied(passport, List.of(List.of(condition)));
+    }
+
+    private static boolean satisfied(List<Visa> passport, List<List<Condition>> conditions) {
+        Visa visa = visa(VisaType.ControlledAccessGrants, "https://ega.example.org/EGAD01", conditions);
+        return ConditionsEvaluator.isSatisfied(visa, PassportIndex.of(passport));
+    }
+
+    private static Visa visa(VisaType type, String value, List<List<Condition>> conditions) {
+        Visa visa = new Visa();
+        visa.setType(type.name());
+        visa.setAsserted(1583757401L);
+        visa.setValue(value);
+        visa.setSource(SOURCE);
+        visa.setBy("system");
+        visa.conditions(conditions);
+        return visa;
+    }
+
+}
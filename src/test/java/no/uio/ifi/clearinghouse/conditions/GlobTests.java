@@ -0,0 +1,33 @@
+package no.uio.ifi.clearinghouse.conditions;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class GlobTests {
+
+    private static boolean matches(String pattern, String value) {
+        return Glob.compile(pattern).matches(value, 0, value.length());
+    }
+
+    @Test
+    public void wildcardsTest() {
+        Assertions.assertTrue(matches("faculty@uio.no", "faculty@uio.no"));
+        Assertions.assertFalse(matches("faculty@uio.no", "faculty@uio.no.evil"));
+        Assertions.assertTrue(matches("faculty@*", "faculty@uio.no"));
+        Assertions.assertTrue(matches("*@uio.no", "faculty@uio.no"));
+        Assertions.assertTrue(matches("f?culty@*.no", "faculty@uio.no"));
+        Assertions.assertTrue(matches("*a*b*c", "xaxbxbxc"));
+        Assertions.assertFalse(matches("*a*b*c", "xaxbxbxcx"));
+        Assertions.assertTrue(matches("a**", "a"));
+    }
+
+    @Test
+    public void asteriskInValueTest() {
+        Assertions.assertTrue(matches("*", "*x"));
+        Assertions.assertTrue(matches("*x", "*ax"));
+        Assertions.assertTrue(matches("?*", "a*b"));
+        Assertions.assertTrue(matches("a*b", "a*b"));
+        Assertions.assertFalse(matches("*x", "*a"));
+    }
+
+}
@@ -0,0 +1,89 @@
+package no.uio.ifi.clearinghouse.model;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+public class VisaTests {
+
+    private static final String VISA = """
+            {"sub":"test@elixir-europe.org","exp":32503680000,"type":"ControlledAccessGrants","asserted":1583757401,
+             "value":"https://ega-archive.org/datasets/EGAD00000000001","source":"https://ega-archive.org/dacs/EGAC00000000001",
+             "conditions":[[{"type":"AffiliationAndRole","value":"const:faculty@uio.no","by":"const:so"}],
+                           [{"type":"AcceptedTermsAndPolicies","value":"const:https://doi.org/10.1038/s41431-018-0219-y"}]],
+             "by":"dac"}""";
+
+    private final Gson gson = new Gson();
+
+    @Test
+    public void jsonRoundTripTest() {
+        Visa visa = gson.fromJson(VISA, Visa.class);
+        Assertions.assertEquals(VisaType.ControlledAccessGrants, visa.visaType());
+        Assertions.assertEquals("ControlledAccessGrants", visa.getType());
+        Assertions.assertEquals(ByValue.DAC, visa.byValue());
+        Assertions.assertEquals("dac", visa.getBy());
+        Assertions.assertEquals(32503680000L, visa.getExp());
+        Assertions.assertEquals(1583757401L, visa.getAsserted());
+        Assertions.assertEquals(new Condition("AffiliationAndRole", "const:faculty@uio.no", null, "const:so"),
+                visa.conditions().get(0).get(0));
+        String json = gson.toJson(visa);
+        Assertions.assertEquals(gson.fromJson(VISA, JsonObject.class), gson.fromJson(json, JsonObject.class));
+        Assertions.assertEquals(visa, gson.fromJson(json, Visa.class));
+    }
+
+    @Test
+    public void absentFieldsAreNotSerializedTest() {
+        Visa visa = gson.fromJson("{\"type\":\"LinkedIdentities\",\"asserted\":1,\"value\":\"v\",\"source\":\"s\"}", Visa.class);
+        Assertions.assertNull(visa.getExp());
+        Assertions.assertNull(visa.getSub());
+        Assertions.assertNull(visa.getBy());
+        Assertions.assertNull(visa.byValue());
+        Assertions.assertNull(visa.conditions());
+        JsonObject json = gson.fromJson(gson.toJson(visa), JsonObject.class);
+        Assertions.assertEquals(Map.of("type", "LinkedIdentities", "asserted", 1.0, "value", "v", "source", "s"),
+                gson.fromJson(json, Map.class));
+    }
+
+    @Test
+    public void customTypeAndByAreKeptTest() {
+        Visa visa = gson.fromJson("{\"type\":\"CustomVisa\",\"asserted\":1,\"value\":\"v\",\"source\":\"s\",\"by\":\"robot\"}", Visa.class);
+        Assertions.assertNull(visa.visaType());
+        Assertions.assertEquals("CustomVisa", visa.getType());
+        Assertions.assertNull(visa.byValue());
+        Assertions.assertEquals("robot", visa.getBy());
+        Visa copy = gson.fromJson(gson.toJson(visa), Visa.class);
+        Assertions.assertEquals("CustomVisa", copy.getType());
+        Assertions.assertEquals("robot", copy.getBy());
+        Assertions.assertEquals(visa, copy);
+    }
+
+    @Test
+    public void conditionsKeepMapShapeTest() {
+        Visa visa = gson.fromJson(VISA, Visa.class);
+        List<List<Map<?, ?>>> conditions = visa.getConditions();
+        Assertions.assertEquals(List.of(
+                List.of(Map.of("type", "AffiliationAndRole", "value", "const:faculty@uio.no", "by", "const:so")),
+                List.of(Map.of("type", "AcceptedTermsAndPolicies", "value", "const:https://doi.org/10.1038/s41431-018-0219-y"))),
+                conditions);
+        Assertions.assertSame(conditions, visa.getConditions());
+        Visa copy = new Visa();
+        copy.setConditions(conditions);
+        Assertions.assertEquals(visa.conditions(), copy.conditions());
+        Assertions.assertSame(conditions, copy.getConditions());
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> visa.readOnlyCopy().getConditions().clear());
+    }
+
+    @Test
+    public void repeatingStringsArePooledTest() {
+        Visa first = gson.fromJson(VISA, Visa.class);
+        Visa second = gson.fromJson(VISA, Visa.class);
+        Assertions.assertSame(first.getSource(), second.getSource());
+        Assertions.assertSame(first.getValue(), second.getValue());
+        Assertions.assertSame(first.conditions().get(0).get(0).value(), second.conditions().get(0).get(0).value());
+    }
+
+}